@@ -0,0 +1,255 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This file runs many programs at once on the JHack emulator, a Java-based emulator of the
+ * Nand to Tetris Hack computer.
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs many compiled Jack programs concurrently, each on its own HackMachine, and reports the
+ * result of each program as soon as it finishes. Each line of the report holds the program
+ * directory, how the program ended, the time it ran for, and a hash of its final screen.
+ */
+public class HackBatch {
+
+    // The limits on the running time and CPU time of each program in milliseconds, and on the
+    // number of steps it takes; 0 for no limit
+    private static long timeLimit, cpuLimit, stepLimit;
+
+    /**
+     * The entry point of the batch runner
+     * @param args the options, listed by printHelp()
+     */
+    public static void main(java.lang.String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean virtual = false;
+        Path snapshotDir = null;
+        PrintStream report = System.out;
+        ArrayList<Job> jobs = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("--time-limit") && i + 1 < args.length) {
+                timeLimit = Long.parseLong(args[++i]);
+            }
+            else if (args[i].equals("--cpu-limit") && i + 1 < args.length) {
+                cpuLimit = Long.parseLong(args[++i]);
+            }
+            else if (args[i].equals("--step-limit") && i + 1 < args.length) {
+                stepLimit = Long.parseLong(args[++i]);
+            }
+            else if (args[i].equals("--virtual")) {
+                virtual = true;
+            }
+            else if (args[i].equals("--snapshots") && i + 1 < args.length) {
+                snapshotDir = Paths.get(args[++i]);
+            }
+            else if (args[i].equals("--report") && i + 1 < args.length) {
+                report = new PrintStream(Files.newOutputStream(Paths.get(args[++i])), true);
+            }
+            else if (args[i].equals("--list") && i + 1 < args.length) {
+                readJobs(Paths.get(args[++i]), jobs);
+            }
+            else if (!args[i].startsWith("--")) {
+                jobs.add(new Job(Paths.get(args[i]), null));
+            }
+            else {
+                printHelp();
+                System.exit(2);
+            }
+        }
+        if (jobs.isEmpty()) {
+            printHelp();
+            System.exit(2);
+        }
+        if (snapshotDir != null) {
+            Files.createDirectories(snapshotDir);
+        }
+
+        // Virtual threads are cheap, so there is one for each program, but at most the given
+        // number of programs run at once either way
+        ExecutorService executor = virtual ? newVirtualThreadExecutor()
+            : Executors.newFixedThreadPool(threads);
+        Semaphore running = new Semaphore(threads);
+        CompletionService<Job> results = new ExecutorCompletionService<>(executor);
+        for (Job job : jobs) {
+            Path snapshot = snapshotDir == null ? null
+                : snapshotDir.resolve(job.programDir.getFileName() + ".png");
+            results.submit(() -> {
+                running.acquire();
+                try {
+                    job.run(snapshot);
+                    return job;
+                } finally {
+                    running.release();
+                }
+            });
+        }
+
+        report.println("program,status,millis,screen");
+        int failures = 0;
+        for (int i = 0; i < jobs.size(); i++) {
+            try {
+                Job job = results.take().get();
+                if (!job.halted) {
+                    failures++;
+                }
+                report.println(job.result);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        executor.shutdown();
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+
+    /**
+     * Reads a list of programs to run. Each line of the list holds a program directory,
+     * optionally followed by a HackHeadless keys file to run it with. Blank lines and lines
+     * starting with # are ignored.
+     */
+    private static void readJobs(Path list, List<Job> jobs) throws IOException {
+        for (java.lang.String line : Files.readAllLines(list)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            java.lang.String[] fields = line.split("\\s+");
+            jobs.add(new Job(Paths.get(fields[0]), fields.length > 1 ? Paths.get(fields[1]) : null));
+        }
+    }
+
+
+    /**
+     * Returns an executor that starts a virtual thread for each task. Virtual threads were
+     * added in Java 21, so the method is looked up at run time to keep the emulator running
+     * on earlier versions.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+        }
+    }
+
+
+    /**
+     * Prints the options of the batch runner
+     */
+    private static void printHelp() {
+        System.out.println("SYNTAX");
+        System.out.println("HackBatch [options] <programDir>...");
+        System.out.println("\tRuns each compiled Jack program in its own HackMachine, and prints a CSV line");
+        System.out.println("\tfor each as it finishes. Exits with status 1 if any program fails.");
+        System.out.println();
+        System.out.println("OPTIONS");
+        System.out.println("--list <file>");
+        System.out.println("\tAlso runs the programs in the file. Each line holds a program directory,");
+        System.out.println("\toptionally followed by a HackHeadless keys file to run it with.");
+        System.out.println("--threads <n>");
+        System.out.println("\tRuns at most n programs at once. By default, one per processor.");
+        System.out.println("--virtual");
+        System.out.println("\tRuns the programs on virtual threads, which suits programs that spend most");
+        System.out.println("\tof their time waiting; use a large --threads with this option.");
+        System.out.println("--time-limit <ms>");
+        System.out.println("\tStops each program that runs for longer than ms milliseconds.");
+        System.out.println("--cpu-limit <ms>");
+        System.out.println("\tStops each program that uses more than ms milliseconds of CPU time. CPU time");
+        System.out.println("\tis not measured on virtual threads.");
+        System.out.println("--step-limit <n>");
+        System.out.println("\tStops each program after n function calls and labels. Only programs compiled");
+        System.out.println("\twith the --count-steps option of VMtoClass count their steps.");
+        System.out.println("--snapshots <dir>");
+        System.out.println("\tWrites the final screen of each program to <dir>/<program>.png.");
+        System.out.println("--report <file>");
+        System.out.println("\tWrites the CSV lines to a file instead of the console.");
+    }
+
+
+    /**
+     * A program to run, with its input
+     */
+    private static class Job {
+
+        // The directory holding the class files of the program
+        private final Path programDir;
+
+        // The HackHeadless keys file to run the program with, or null
+        private final Path keys;
+
+        // Whether the program halted, rather than failing
+        private boolean halted;
+
+        // The line of the report for the program, once it has run
+        private java.lang.String result;
+
+        private Job(Path programDir, Path keys) {
+            this.programDir = programDir;
+            this.keys = keys;
+        }
+
+        /**
+         * Runs the program to the end, and sets its result. Anything that goes wrong, from a
+         * directory that holds no program to the program running out of heap, only fails this
+         * program, not the batch.
+         * @param snapshot the file to write the final screen to, or null
+         */
+        private void run(Path snapshot) {
+            long start = System.nanoTime();
+            java.lang.String status = "halted";
+            halted = true;
+            short[] frame = new short[HackComputer.SCREEN_END - HackComputer.SCREEN + 1];
+            boolean ran = false;
+            try (HackMachine machine = new HackMachine(programDir)) {
+                try {
+                    if (keys != null) {
+                        machine.scheduleKeys(keys);
+                    }
+                    machine.setTimeLimit(timeLimit);
+                    machine.setCpuLimit(cpuLimit);
+                    machine.setStepLimit(stepLimit);
+                    machine.run();
+                } finally {
+                    machine.copyScreen(frame);
+                    ran = true;
+                }
+            } catch (Throwable e) {
+                status = "\"" + e.toString().replace("\"", "\"\"") + "\"";
+                halted = false;
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            // There is no screen to write if the machine could not be created
+            if (snapshot != null && ran) {
+                try {
+                    HackHeadless.writeScreen(frame, snapshot);
+                } catch (IOException e) {
+                    status = "\"" + e.toString().replace("\"", "\"\"") + "\"";
+                    halted = false;
+                }
+            }
+            result = programDir + "," + status + "," + millis + ","
+                + Integer.toHexString(Arrays.hashCode(frame));
+        }
+    }
+
+}
@@ -0,0 +1,279 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This file implements the clock of the JHack emulator, a Java-based emulator of the
+ * Nand to Tetris Hack computer.
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The clock that Sys.wait and scripted input run on. The jhack.clock system property selects
+ * how it runs:
+ * "real" (the default) follows the real time;
+ * a number, such as "10", runs that many times faster than the real time, so waits are that
+ * many times shorter;
+ * "turbo" follows the real time, but skips every wait instantly, adding its duration to the
+ * clock, so that programs that spend their time waiting run as fast as possible.
+ *
+ * Actions scheduled on the clock, such as scripted keys, run on a separate thread, except in
+ * turbo mode. There, they run on the thread running the program, when it waits or looks for
+ * input, so that they happen at the same points of the program every time it runs.
+ */
+public class HackClock {
+
+	// How many times faster than the real time the clock runs
+	private static final double speed;
+
+	// Whether waits are skipped instead of slept
+	private static final boolean turbo;
+
+	static {
+		java.lang.String mode = System.getProperty("jhack.clock", "real");
+		if (mode.equals("real")) {
+			speed = 1;
+			turbo = false;
+		}
+		else if (mode.equals("turbo")) {
+			speed = 1;
+			turbo = true;
+		}
+		else {
+			try {
+				speed = Double.parseDouble(mode);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Unknown jhack.clock mode: " + mode);
+			}
+			if (!(speed > 0)) {
+				throw new IllegalArgumentException("Unknown jhack.clock mode: " + mode);
+			}
+			turbo = false;
+		}
+	}
+
+	// The real time at which the clock started, in nanoseconds
+	private static final long start = System.nanoTime();
+
+	// The total duration of the waits skipped in turbo mode, in milliseconds
+	private static long skipped;
+
+	// The actions scheduled with schedule(), earliest first
+	private static final PriorityQueue<Action> actions = new PriorityQueue<>();
+
+	// The number of actions scheduled so far
+	private static long scheduled;
+
+	// The thread that runs the scheduled actions, or null while there are none; not used in
+	// turbo mode
+	private static Thread runner;
+
+	// The time of the earliest scheduled action, or Long.MAX_VALUE if there is none
+	private static volatile long nextAction = Long.MAX_VALUE;
+
+	// The time between frames, in nanoseconds on the clock; set with the jhack.fps property
+	private static final long framePeriod = 1_000_000_000L
+		/ java.lang.Math.max(Integer.parseInt(System.getProperty("jhack.fps", "60")), 1);
+
+	// The number of frames the display has painted, or 0 if there is no display; see
+	// frameShown()
+	private static long frames;
+
+	// Whether the program has waited for a frame since the display last asked; see
+	// takeFrameRequest()
+	private static boolean frameRequested;
+
+	/**
+	 * Returns the time on the clock, in milliseconds since it started
+	 */
+	public static synchronized long millis() {
+		return (long) ((System.nanoTime() - start) * speed / 1_000_000) + skipped;
+	}
+
+	/**
+	 * Returns the time on the clock, in nanoseconds since it started
+	 */
+	private static synchronized long nanos() {
+		return (long) ((System.nanoTime() - start) * speed) + skipped * 1_000_000;
+	}
+
+	/**
+	 * Waits for the next frame. If a display paints the frames, this waits until it has painted
+	 * another, or for two frame periods if it does not. Otherwise, the frames fall on the clock
+	 * every frame period, and this parks the thread until the next one, which is more precise
+	 * than a sleep of whole milliseconds; in turbo mode, the wait is skipped like any other.
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public static void awaitFrame() throws InterruptedException {
+		synchronized (HackClock.class) {
+			if (frames > 0) {
+				long frame = frames;
+				frameRequested = true;
+				long deadline = System.nanoTime() + 2 * framePeriod;
+				while (frames == frame) {
+					long wait = deadline - System.nanoTime();
+					if (wait <= 0) {
+						return;
+					}
+					HackClock.class.wait(wait / 1_000_000, (int) (wait % 1_000_000));
+				}
+				return;
+			}
+		}
+		long now = nanos();
+		long next = (now / framePeriod + 1) * framePeriod;
+		if (turbo) {
+			sleep((next - now + 999_999) / 1_000_000);
+			return;
+		}
+		for (long wait = next - now; wait > 0; wait = next - nanos()) {
+			LockSupport.parkNanos((long) (wait / speed));
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+	}
+
+	/**
+	 * Tells the clock that the display has painted a frame, which ends any wait in awaitFrame()
+	 */
+	public static synchronized void frameShown() {
+		frames++;
+		HackClock.class.notifyAll();
+	}
+
+	/**
+	 * Returns whether the program has waited for a frame since the last call, in which case
+	 * the display should paint a frame even if the screen has not changed, and keep painting
+	 * at its full rate
+	 */
+	public static synchronized boolean takeFrameRequest() {
+		boolean requested = frameRequested;
+		frameRequested = false;
+		return requested;
+	}
+
+	/**
+	 * Waits for the given number of milliseconds on the clock. In turbo mode, this returns
+	 * immediately, after running any scheduled actions that the wait skipped over.
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public static void sleep(long duration) throws InterruptedException {
+		if (turbo) {
+			synchronized (HackClock.class) {
+				skipped += duration;
+				runDueActions();
+			}
+		}
+		else {
+			Thread.sleep((long) java.lang.Math.ceil(duration / speed));
+		}
+	}
+
+	/**
+	 * In turbo mode, runs the scheduled actions whose times the clock has reached on the
+	 * calling thread, which must be the thread running the program. HackComputer calls this
+	 * wherever the program looks for input, so that scripted keys reach programs that never
+	 * wait. In other modes, this does nothing, since the actions run on their own thread.
+	 */
+	public static void runDue() {
+		if (turbo && nextAction <= millis()) {
+			runDueActions();
+		}
+	}
+
+	/**
+	 * Runs the given action when the clock reaches the given time. The actions run on a
+	 * separate thread, except in turbo mode; see runDue(). Either way, they run one at a time
+	 * in the order of their times, and the actions that a wait skips over in turbo mode run
+	 * before the wait returns.
+	 * @param time the time on the clock, in milliseconds since it started
+	 */
+	public static synchronized void schedule(long time, Runnable action) {
+		actions.add(new Action(time, scheduled++, action));
+		nextAction = actions.peek().time;
+		if (!turbo && runner == null) {
+			runner = new Thread(HackClock::runActions, "HackClock");
+			runner.setDaemon(true);
+			runner.start();
+		}
+		HackClock.class.notifyAll();
+	}
+
+	/**
+	 * Cancels the scheduled actions and stops the thread that runs them. HackMachine calls
+	 * this when it is closed, so that the thread does not keep the machine in memory.
+	 */
+	public static synchronized void stop() {
+		actions.clear();
+		nextAction = Long.MAX_VALUE;
+		if (runner != null) {
+			runner.interrupt();
+			runner = null;
+		}
+	}
+
+	/**
+	 * Runs the scheduled actions as the clock reaches their times. The thread ends once there
+	 * are no actions left, and schedule() starts another for the next one.
+	 */
+	private static void runActions() {
+		try {
+			while (true) {
+				synchronized (HackClock.class) {
+					if (actions.isEmpty()) {
+						if (runner == Thread.currentThread()) {
+							runner = null;
+						}
+						return;
+					}
+					long wait = actions.peek().time - millis();
+					if (wait > 0) {
+						HackClock.class.wait((long) java.lang.Math.ceil(wait / speed));
+						continue;
+					}
+				}
+				runDueActions();
+			}
+		} catch (InterruptedException e) {
+		}
+	}
+
+	/**
+	 * Runs the scheduled actions whose times have been reached. The lock on the clock is held
+	 * while they run, so that no two threads ever run actions at once or out of order.
+	 */
+	private static synchronized void runDueActions() {
+		while (!actions.isEmpty() && actions.peek().time <= millis()) {
+			actions.poll().action.run();
+		}
+		nextAction = actions.isEmpty() ? Long.MAX_VALUE : actions.peek().time;
+	}
+
+	/**
+	 * An action scheduled to run at a time on the clock
+	 */
+	private static class Action implements Comparable<Action> {
+
+		// The time to run the action at, and the order in which it was scheduled, which
+		// decides between actions scheduled for the same time
+		private final long time, order;
+
+		private final Runnable action;
+
+		private Action(long time, long order, Runnable action) {
+			this.time = time;
+			this.order = order;
+			this.action = action;
+		}
+
+		@Override
+		public int compareTo(Action other) {
+			if (time != other.time) {
+				return Long.compare(time, other.time);
+			}
+			return Long.compare(order, other.order);
+		}
+	}
+
+}
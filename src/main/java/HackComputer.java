@@ -5,6 +5,19 @@
  * Nand to Tetris - https://www.nand2tetris.org/
  */
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
 /** Provides access to the memory of the Hack Computer */
 public class HackComputer {
 
@@ -35,10 +48,79 @@ public class HackComputer {
 	// stored outside the RAM. The JVM handles the stack, so the only reserved
 	// areas in the RAM are the screen map and the keyboard map.
 	// There is no static segment; each class contains its own static fields.
-	private static short ram[] = new short[RAM_END + 1];
+	// The RAM is a buffer rather than an array so that it can be stored outside the Java heap,
+	// where the display and other processes can read it without copying; see createRam().
+	private static final ShortBuffer ram = createRam();
 
 	private static short temps[] = new short[TEMPS_SIZE];
 
+	/** The number of rows of pixels on the screen */
+	public static final int SCREEN_ROWS = 256;
+
+	/** The number of words in each row of pixels on the screen */
+	public static final int ROW_WORDS = 32;
+
+	// The screen rows written since the display last asked for them; bit j of element i stands
+	// for row 64 * i + j. The display clears the bits as it takes them, so the bits are updated
+	// atomically rather than under a lock.
+	private static final AtomicLongArray dirtyRows = new AtomicLongArray(SCREEN_ROWS / 64);
+
+	// Incremented before and after each write to the screen, so it is odd while a write is in
+	// progress; this lets copyScreen() tell whether its copy was written to meanwhile. Only the
+	// thread running the program writes to the screen, so the increments need no lock.
+	private static volatile int screenWrites;
+
+	// The number of times copyScreen() tries to copy the screen while the program writes to it
+	private static final int COPY_ATTEMPTS = 4;
+
+	// The number of steps the program has taken, and the most it may take; see step()
+	private static long steps, stepLimit = Long.MAX_VALUE;
+
+	// The steps at which replayed keys are placed in the keyboard memory map, in order, the
+	// keys, and the index of the next key to place
+	private static long[] keySteps = {};
+	private static short[] keys = {};
+	private static int nextKey;
+
+	// The next step at which step() has something to do: stop the program, or place a key
+	private static long nextStepEvent = Long.MAX_VALUE;
+
+	// The changes to the keyboard memory map that the program has not seen yet, in a ring
+	// buffer. Keys are added by one thread at a time (pressKey() is synchronized) and taken by
+	// the thread running the program, so the ends of the buffer are only volatile, not locked.
+	private static final short[] keyQueue = new short[256];
+	private static volatile int keyHead, keyTail;
+
+	// The last key added to the queue, used to leave out the repeats of a key held down
+	private static short lastQueuedKey;
+
+	// The key events that the program has not taken yet, in a ring buffer like the key queue:
+	// a key code for a key pressed, or its negation for a key released
+	private static final short[] keyEvents = new short[256];
+	private static volatile int eventHead, eventTail;
+
+	// Whether the program has asked for key events. Until it does, none are kept, so that a
+	// program that never asks does not fill the buffer and lose the events it asks for later.
+	private static volatile boolean keyEventsWanted;
+
+	// The thread parked in awaitKeyboard(), which pressKey() wakes up, or null
+	private static volatile Thread keyWaiter;
+
+	// The longest time awaitKeyboard() parks before looking at the keyboard memory map again,
+	// which also notices keys written into the RAM directly rather than with pressKey()
+	private static final long KEY_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	// The passes through idle loops since the program last wrote to the RAM or a key was
+	// queued, and the end of the key queue when idle() last looked at it
+	private static int idlePasses, idleKeyTail;
+
+	// The number of passes that idle() only spins for, before it starts to park the thread
+	private static final int IDLE_SPINS = 1000;
+
+	// The shortest time idle() parks the thread for; each further pass doubles the time, up to
+	// KEY_WAIT_NANOS
+	private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
 	/** 
 	 * Retrieves a value from the RAM of the Hack computer.
 	 * @throws IndexOutOfBoundsException if the index is out of range
@@ -48,12 +130,19 @@ public class HackComputer {
 		try {
 			Thread.sleep(0); // Keyboard input will not get through unless the thread sleeps
 		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted");
 		}
 	
 		if (address < HEAP_START || address > RAM_END) {
 			throw new IndexOutOfBoundsException(address);
 		}
-		return ram[address];
+		if (address == KBD) {
+			HackClock.runDue();
+			if (keyHead != keyTail) {
+				return readKeyboard();
+			}
+		}
+		return ram.get(address);
 	}
 
 	// The value parameter precedes the address parameter because this reduces the number of 
@@ -73,14 +162,408 @@ public class HackComputer {
 		try {
 			Thread.sleep(0);
 		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted");
 		}
 	
 		if (address < HEAP_START || address > RAM_END) {
 			throw new IndexOutOfBoundsException(address);
 		}
-		ram[address] = (short) value;
+		idlePasses = 0;
+		if (address >= SCREEN && address <= SCREEN_END) {
+			screenWrites++;
+			// Keep the write to the screen from moving before the odd count is visible; the
+			// volatile write of the even count keeps it from moving after
+			VarHandle.storeStoreFence();
+			ram.put(address, (short) value);
+			screenWrites++;
+			markDirty((address - SCREEN) / ROW_WORDS);
+		}
+		else {
+			ram.put(address, (short) value);
+		}
+	}
+
+	/**
+	 * Marks the given screen row as written. The bit is read first, since it is usually
+	 * already set while a row is being drawn.
+	 */
+	private static void markDirty(int row) {
+		long bit = 1L << row;
+		int index = row / 64;
+		if ((dirtyRows.get(index) & bit) == 0) {
+			dirtyRows.getAndAccumulate(index, bit, (rows, b) -> rows | b);
+		}
+	}
+
+	/**
+	 * Returns the screen rows written since the last call, and marks them as clean. Bit j of
+	 * element i of the result is set if row 64 * i + j was written.
+	 */
+	public static long[] takeDirtyRows() {
+		long[] rows = new long[SCREEN_ROWS / 64];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = dirtyRows.getAndSet(i, 0);
+		}
+		return rows;
 	}
 	
+	/**
+	 * Returns a value from the RAM, for a thread other than the one running the program. Unlike
+	 * peek(), this does not yield, and a read of the keyboard memory map does not take the
+	 * next queued key, which only the thread running the program may do.
+	 * @throws IndexOutOfBoundsException if the address is out of range
+	 */
+	public static short inspect(int address) {
+		if (address < HEAP_START || address > RAM_END) {
+			throw new IndexOutOfBoundsException(address);
+		}
+		return ram.get(address);
+	}
+
+	/**
+	 * Marks the given screen rows as written again, for a display that took them with
+	 * takeDirtyRows() but could not get a consistent copy of the screen
+	 * @param rows the rows, in the form returned by takeDirtyRows()
+	 */
+	public static void restoreDirtyRows(long[] rows) {
+		for (int i = 0; i < rows.length; i++) {
+			if (rows[i] != 0) {
+				dirtyRows.getAndAccumulate(i, rows[i], (dirty, r) -> dirty | r);
+			}
+		}
+	}
+
+	/**
+	 * Queues a change to the keyboard memory map, such as a key being pressed or released (0).
+	 * The program sees every change in order, even when several arrive between two of its
+	 * reads of the keyboard memory map; if the queue is full, the change is dropped.
+	 */
+	public static synchronized void pressKey(short key) {
+		if (key == lastQueuedKey) {
+			return;
+		}
+		int tail = keyTail;
+		int next = (tail + 1) % keyQueue.length;
+		if (next == keyHead) {
+			return;
+		}
+		// The keyboard memory map holds one key at a time, so a change releases the key
+		// before it and presses the new one. The events are only added for a change that is
+		// queued, so that they always pair with lastQueuedKey.
+		if (lastQueuedKey != 0) {
+			addKeyEvent((short) -lastQueuedKey);
+		}
+		if (key != 0) {
+			addKeyEvent(key);
+		}
+		keyQueue[tail] = key;
+		lastQueuedKey = key;
+		// Writing the volatile tail publishes the key to the thread running the program
+		keyTail = next;
+		Thread waiter = keyWaiter;
+		if (waiter != null) {
+			LockSupport.unpark(waiter);
+		}
+	}
+
+	/**
+	 * Waits until a read of the keyboard memory map may return something other than the
+	 * given value, instead of reading it over and over. The thread parks until pressKey()
+	 * queues a change, for at most KEY_WAIT_NANOS at a time.
+	 * @param value the value the caller last read from the keyboard memory map
+	 * @throws RuntimeException if the thread is interrupted, like peek()
+	 */
+	public static void awaitKeyboard(short value) {
+		HackClock.runDue();
+		keyWaiter = Thread.currentThread();
+		try {
+			while (keyHead == keyTail && ram.get(KBD) == value) {
+				// While keys are replayed by steps, no other input can arrive, so the steps
+				// jump to the next replayed key instead of waiting for it
+				if (nextKey < keys.length) {
+					steps = java.lang.Math.max(steps, keySteps[nextKey]);
+					stepEvent();
+					continue;
+				}
+				LockSupport.parkNanos(KEY_WAIT_NANOS);
+				if (Thread.interrupted()) {
+					throw new RuntimeException("Interrupted");
+				}
+				HackClock.runDue();
+			}
+		} finally {
+			keyWaiter = null;
+		}
+	}
+
+	/**
+	 * Adds an event to the key events, unless they are full or the program has not asked for
+	 * any yet. Only called by pressKey().
+	 */
+	private static void addKeyEvent(short event) {
+		if (!keyEventsWanted) {
+			return;
+		}
+		int tail = eventTail;
+		int next = (tail + 1) % keyEvents.length;
+		if (next != eventHead) {
+			keyEvents[tail] = event;
+			eventTail = next;
+		}
+	}
+
+	/**
+	 * Takes the oldest key event the program has not taken yet: the key code of a key pressed,
+	 * or its negation for a key released. Only the thread running the program may take events.
+	 * Events are kept from the first call of takeKeyEvent(), countKeyEvents() or awaitKeyEvent().
+	 * @return the event, or 0 if there is none
+	 */
+	public static short takeKeyEvent() {
+		keyEventsWanted = true;
+		HackClock.runDue();
+		int head = eventHead;
+		if (head == eventTail) {
+			return 0;
+		}
+		short event = keyEvents[head];
+		eventHead = (head + 1) % keyEvents.length;
+		return event;
+	}
+
+	/**
+	 * Returns the number of key events the program has not taken yet
+	 */
+	public static short countKeyEvents() {
+		keyEventsWanted = true;
+		return (short) ((eventTail - eventHead + keyEvents.length) % keyEvents.length);
+	}
+
+	/**
+	 * Waits until there is a key event to take, parking the thread like awaitKeyboard()
+	 * @throws RuntimeException if the thread is interrupted, like peek()
+	 */
+	public static void awaitKeyEvent() {
+		keyEventsWanted = true;
+		HackClock.runDue();
+		keyWaiter = Thread.currentThread();
+		try {
+			while (eventHead == eventTail) {
+				if (nextKey < keys.length) {
+					steps = java.lang.Math.max(steps, keySteps[nextKey]);
+					stepEvent();
+					continue;
+				}
+				LockSupport.parkNanos(KEY_WAIT_NANOS);
+				if (Thread.interrupted()) {
+					throw new RuntimeException("Interrupted");
+				}
+				HackClock.runDue();
+			}
+		} finally {
+			keyWaiter = null;
+		}
+	}
+
+	/**
+	 * Moves the keyboard memory map on to the next queued change, and returns its new value
+	 */
+	private static short readKeyboard() {
+		int head = keyHead;
+		short key = keyQueue[head];
+		ram.put(KBD, key);
+		keyHead = (head + 1) % keyQueue.length;
+		HackInput.keyRead(key);
+		return key;
+	}
+
+	/**
+	 * Yields like peek() and poke(), at the label of a loop that the compiler found only waits
+	 * for input. While the program keeps passing through such loops without writing to the
+	 * RAM, and no key is queued, this spins for IDLE_SPINS passes, then parks the thread for
+	 * longer and longer on each pass, until pressKey() wakes it up.
+	 * @throws RuntimeException if the thread is interrupted, like peek()
+	 */
+	public static void idle() {
+		HackClock.runDue();
+		int tail = keyTail;
+		if (tail != idleKeyTail) {
+			idleKeyTail = tail;
+			idlePasses = 0;
+		}
+		// While keys are replayed by steps, the steps must keep going to reach them
+		if (++idlePasses <= IDLE_SPINS || nextKey < keys.length) {
+			Thread.onSpinWait();
+		}
+		else {
+			int doublings = java.lang.Math.min(idlePasses - IDLE_SPINS - 1, 16);
+			keyWaiter = Thread.currentThread();
+			if (keyTail == tail) {
+				LockSupport.parkNanos(java.lang.Math.min(IDLE_PARK_NANOS << doublings, KEY_WAIT_NANOS));
+			}
+			keyWaiter = null;
+		}
+		if (Thread.interrupted()) {
+			throw new RuntimeException("Interrupted");
+		}
+	}
+
+	/**
+	 * Counts a step of the program, and yields like peek() and poke(). Classes compiled with
+	 * the --count-steps option call this at the entry of each function and at each label.
+	 * @throws RuntimeException if the program has used up its step limit
+	 */
+	public static void step() {
+		if (++steps >= nextStepEvent) {
+			stepEvent();
+		}
+		try {
+			Thread.sleep(0);
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted");
+		}
+	}
+
+	/**
+	 * Stops the program if it has used up its step limit, and queues the replayed keys whose
+	 * steps have been reached
+	 */
+	private static void stepEvent() {
+		if (steps > stepLimit) {
+			throw new RuntimeException("Step limit exceeded");
+		}
+		while (nextKey < keys.length && keySteps[nextKey] <= steps) {
+			pressKey(keys[nextKey++]);
+		}
+		nextStepEvent = java.lang.Math.min(getLimitStep(),
+			nextKey < keys.length ? keySteps[nextKey] : Long.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the first step beyond the step limit
+	 */
+	private static long getLimitStep() {
+		return stepLimit == Long.MAX_VALUE ? Long.MAX_VALUE : stepLimit + 1;
+	}
+
+	/**
+	 * Sets the number of steps the program may take before step() stops it. Only programs
+	 * compiled with the --count-steps option count their steps.
+	 */
+	public static void setStepLimit(long limit) {
+		stepLimit = limit;
+		nextStepEvent = java.lang.Math.min(nextStepEvent, getLimitStep());
+	}
+
+	/**
+	 * Returns the number of steps the program has taken. Only programs compiled with the
+	 * --count-steps option count their steps.
+	 */
+	public static long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Queues the given keys for the keyboard memory map when the program reaches the given
+	 * steps, which makes the input of a program compiled with the --count-steps option exactly
+	 * repeatable. This must be called before the program starts.
+	 * @param keySteps the steps at which to place the keys, in increasing order
+	 * @param keys the keys to place; 0 releases the key
+	 */
+	public static void setKeySteps(long[] keySteps, short[] keys) {
+		HackComputer.keySteps = keySteps;
+		HackComputer.keys = keys;
+		nextKey = 0;
+		if (keys.length > 0) {
+			nextStepEvent = java.lang.Math.min(nextStepEvent, keySteps[0]);
+		}
+	}
+
+	/**
+	 * Returns a read-only view of the screen memory map. The view shares the RAM without
+	 * copying, so it always shows the current screen; index 0 of the view is address SCREEN.
+	 */
+	public static ShortBuffer getScreen() {
+		return ram.duplicate().position(SCREEN).limit(KBD).slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Copies the screen memory map into the given array, which must hold SCREEN_END - SCREEN + 1
+	 * words. The copy is repeated if the program writes to the screen meanwhile, so that it
+	 * shows the screen at a single point in time; if the program keeps writing, the last copy
+	 * is kept.
+	 * @return whether the copy shows the screen at a single point in time
+	 */
+	public static boolean copyScreen(short[] frame) {
+		ShortBuffer source = ram.duplicate();
+		for (int attempt = 1; attempt <= COPY_ATTEMPTS; attempt++) {
+			int before = screenWrites;
+			source.position(SCREEN);
+			source.get(frame);
+			// Keep the reads of the screen from moving past the second read of screenWrites
+			VarHandle.loadLoadFence();
+			if ((before & 1) == 0 && screenWrites == before) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Copies the whole RAM into the given array, which must hold RAM_END + 1 words
+	 */
+	public static void copyRam(short[] words) {
+		ShortBuffer source = ram.duplicate();
+		source.position(0);
+		source.get(words);
+	}
+
+	/**
+	 * Replaces the whole RAM with the given words, and marks the whole screen as written.
+	 * This must not be called while the program is running.
+	 * @param words the new contents of the RAM, RAM_END + 1 words
+	 */
+	public static void loadRam(short[] words) {
+		screenWrites++;
+		VarHandle.storeStoreFence();
+		ShortBuffer target = ram.duplicate();
+		target.position(0);
+		target.put(words);
+		screenWrites++;
+		for (int row = 0; row < SCREEN_ROWS; row++) {
+			markDirty(row);
+		}
+	}
+
+	/**
+	 * Creates the RAM of the Hack computer. The jhack.ram system property selects where it is
+	 * stored: "heap" (the default) in the Java heap, "direct" in native memory, or "file:path"
+	 * in the given file, which is memory-mapped so that other processes can watch the running
+	 * program. Each word of the file is stored in little-endian order, at twice its address.
+	 */
+	private static ShortBuffer createRam() {
+		java.lang.String backend = System.getProperty("jhack.ram", "heap");
+		int size = (RAM_END + 1) * 2;
+		if (backend.equals("heap")) {
+			return ShortBuffer.allocate(RAM_END + 1);
+		}
+		else if (backend.equals("direct")) {
+			return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder()).asShortBuffer();
+		}
+		else if (backend.startsWith("file:")) {
+			// The file is truncated so that the RAM starts out cleared
+			try (FileChannel file = FileChannel.open(Paths.get(backend.substring(5)),
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				// The mapping remains valid after the channel is closed
+				return file.map(FileChannel.MapMode.READ_WRITE, 0, size)
+					.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to map RAM file: " + backend.substring(5), e);
+			}
+		}
+		throw new IllegalArgumentException("Unknown jhack.ram backend: " + backend);
+	}
+
 	/** 
 	 * Stores a value in the temp segment of the Hack computer.
 	 * @throws IndexOutOfBoundsException if the index is out of range
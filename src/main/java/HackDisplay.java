@@ -6,6 +6,12 @@
  */
 
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.VolatileImage;
 import javax.swing.*;
 
 /**
@@ -13,47 +19,178 @@ import javax.swing.*;
  */
 public class HackDisplay extends JPanel {
 
-    // Add 2-pixel border; the Hack display is 512px x 256px
-    public static final int PREFERRED_WIDTH = 515;
-    public static final int PREFERRED_HEIGHT = 259;
+    // The width of the border around the Hack display, in Hack pixels
+    private static final int BORDER = 2;
+
+    /** The width of the Hack display, in pixels */
+    public static final int SCREEN_WIDTH = 512;
+
+    /** The height of the Hack display, in pixels */
+    public static final int SCREEN_HEIGHT = HackComputer.SCREEN_ROWS;
+
+    /** The largest number of window pixels drawn for each Hack pixel */
+    public static final int MAX_SCALE = 8;
+
+    // The number of window pixels drawn for each Hack pixel, in each direction
+    private int scale;
+
+    // The scaled screen, kept in video memory where possible; null until the first paint
+    private transient VolatileImage scaled;
+
+    // The last copy of the screen memory map taken by repaintDirty(). The display only paints
+    // from this copy, never from the RAM that the program is writing to.
+    private final short[] frame = new short[HackComputer.SCREEN_END - HackComputer.SCREEN + 1];
+
+    // The copy being taken by repaintDirty(), which only replaces the frame once it is known
+    // to show the screen at a single point in time
+    private final short[] copy = new short[frame.length];
+
+    // The Hack screen as a 1-bit image, which is drawn with a single call
+    private final transient BufferedImage image;
+
+    // The pixels of the image; each row is 64 bytes, with the leftmost pixel of each byte in
+    // its highest bit
+    private final byte[] pixels;
+
+    // Reverses the bits of a byte. The Hack screen has the leftmost pixel of each word in its
+    // lowest bit, so each byte of a screen word is reversed to get the image byte.
+    private static final byte[] REVERSE = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            REVERSE[i] = (byte) (Integer.reverse(i) >>> 24);
+        }
+    }
 
     /**
-     * Constructs a new HackDisplay
+     * Constructs a new HackDisplay. When the display is resized, the largest scale that fits
+     * is used instead.
+     * @param scale the number of window pixels to draw for each Hack pixel, from 1 to MAX_SCALE
      */
-    public HackDisplay() {
+    public HackDisplay(int scale) {
+        this.scale = java.lang.Math.max(1, java.lang.Math.min(scale, MAX_SCALE));
         setOpaque(true);
         setBackground(Color.WHITE);
         setForeground(Color.BLACK);
+        byte[] colors = { (byte) 255, 0 };
+        image = new BufferedImage(SCREEN_WIDTH, SCREEN_HEIGHT, BufferedImage.TYPE_BYTE_BINARY,
+            new IndexColorModel(1, 2, colors, colors, colors));
+        pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                int fit = java.lang.Math.min(getWidth() / (SCREEN_WIDTH + 2 * BORDER),
+                    getHeight() / (SCREEN_HEIGHT + 2 * BORDER));
+                HackDisplay.this.scale = java.lang.Math.max(1, java.lang.Math.min(fit, MAX_SCALE));
+                repaint();
+            }
+        });
     }
 
     @Override
     protected void paintComponent(Graphics g) {
-        // from nand2tetris ScreenComponent
         super.paintComponent(g);
-        int x, y;
-        for (short i = HackComputer.SCREEN; i < HackComputer.KBD; i++) {
-            if (HackComputer.peek(i) != 0) {
-                x = ((i - HackComputer.SCREEN) % 32) * 16 + 2; // add 2-pixel border
-                y = (i - HackComputer.SCREEN) / 32 + 2;
-                if (HackComputer.peek(i) == -1) // draw a full line
-                    g.drawLine(x, y, x + 15, y);
-                else {
-                    short value = HackComputer.peek(i);
-                    for (int j = 0; j < 16; j++) {
-                        if ((value & 0x1) == 1)
-                            // since there's no drawPixel, uses drawLine to draw one pixel
-                            g.drawLine(x + j, y, x + j, y);
-
-                        value = (short)(value >> 1);
-                    }
+        int width = SCREEN_WIDTH * scale, height = SCREEN_HEIGHT * scale;
+        int left = (getWidth() - width) / 2, top = getTop();
+
+        // Only draw the rows inside the area being repainted
+        Rectangle clip = g.getClipBounds();
+        int firstRow = 0, endRow = SCREEN_HEIGHT;
+        if (clip != null) {
+            firstRow = java.lang.Math.max(firstRow, (clip.y - top) / scale);
+            endRow = java.lang.Math.min(endRow, (clip.y + clip.height - top + scale - 1) / scale);
+        }
+        updateImage(firstRow, endRow);
+
+        // Scale the rows into video memory, then copy them to the window. The contents of a
+        // VolatileImage can be lost at any time, in which case all of it is drawn again.
+        do {
+            int status = scaled == null ? VolatileImage.IMAGE_INCOMPATIBLE
+                : scaled.validate(getGraphicsConfiguration());
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE || scaled.getWidth() != width) {
+                scaled = createVolatileImage(width, height);
+                if (scaled == null) {
+                    // The display is not on screen; scale the image directly
+                    g.drawImage(image, left, top, width, height, null);
+                    HackClock.frameShown();
+                    return;
                 }
+                status = VolatileImage.IMAGE_RESTORED;
+            }
+            if (status == VolatileImage.IMAGE_RESTORED) {
+                firstRow = 0;
+                endRow = SCREEN_HEIGHT;
+                updateImage(firstRow, endRow);
+            }
+            if (firstRow < endRow) {
+                Graphics vg = scaled.createGraphics();
+                vg.drawImage(image, 0, firstRow * scale, width, endRow * scale,
+                    0, firstRow, SCREEN_WIDTH, endRow, null);
+                vg.dispose();
+            }
+            g.drawImage(scaled, left, top, null);
+        } while (scaled.contentsLost());
+        HackClock.frameShown();
+    }
+
+    /**
+     * Copies the given rows from the last frame into the image
+     */
+    private void updateImage(int firstRow, int endRow) {
+        for (int i = firstRow * HackComputer.ROW_WORDS; i < endRow * HackComputer.ROW_WORDS; i++) {
+            short value = frame[i];
+            pixels[i * 2] = REVERSE[value & 0xFF];
+            pixels[i * 2 + 1] = REVERSE[(value >> 8) & 0xFF];
+        }
+    }
+
+    /**
+     * Returns the y coordinate of the top of the Hack screen, which is centered in the display
+     */
+    private int getTop() {
+        return (getHeight() - SCREEN_HEIGHT * scale) / 2;
+    }
+
+    /**
+     * Takes a new copy of the screen and repaints the rows that the Hack program has written
+     * since the last call, merging adjacent rows into one area. Nothing is copied or repainted
+     * if the screen has not changed. If the program keeps writing to the screen while it is
+     * copied, nothing is repainted either, and the rows are left for the next call.
+     * @return whether the screen had changed
+     */
+    public boolean repaintDirty() {
+        long[] dirty = HackComputer.takeDirtyRows();
+        boolean changed = false;
+        for (long rows : dirty) {
+            changed |= rows != 0;
+        }
+        if (!changed) {
+            return false;
+        }
+        if (!HackComputer.copyScreen(copy)) {
+            HackComputer.restoreDirtyRows(dirty);
+            return true;
+        }
+        System.arraycopy(copy, 0, frame, 0, frame.length);
+        int row = 0;
+        while (row < HackComputer.SCREEN_ROWS) {
+            if ((dirty[row / 64] & (1L << row)) == 0) {
+                row++;
+                continue;
+            }
+            int first = row;
+            while (row < HackComputer.SCREEN_ROWS && (dirty[row / 64] & (1L << row)) != 0) {
+                row++;
             }
+            repaint(0, getTop() + first * scale, getWidth(), (row - first) * scale);
         }
+        return true;
     }
 
     @Override
     public Dimension getPreferredSize() {
-        return new Dimension(PREFERRED_WIDTH, PREFERRED_HEIGHT);
+        return new Dimension((SCREEN_WIDTH + 2 * BORDER) * scale,
+            (SCREEN_HEIGHT + 2 * BORDER) * scale);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,245 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This file is the entry point for running the JHack emulator without a display, a Java-based
+ * emulator of the Nand to Tetris Hack computer.
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import javax.imageio.ImageIO;
+
+/**
+ * Runs a Jack program without a window, for automated tests and batch runs. Keyboard input is
+ * read from a script, and the screen is written to PNG or PBM files.
+ */
+public class HackHeadless {
+
+    // The file to write the screen to when the program ends, or null
+    private static Path snapshotFile;
+
+    // The time between periodic snapshots in milliseconds, or 0 for none
+    private static long snapshotPeriod;
+
+    // The number of snapshots written so far, used to number their files
+    private static int snapshotCount;
+
+    // The time to wait before copying the screen again, while the program keeps writing to it
+    private static final long COPY_RETRY_NANOS = 100_000;
+
+    // The size of the screen, in pixels
+    private static final int WIDTH = HackComputer.ROW_WORDS * 16, HEIGHT = HackComputer.SCREEN_ROWS;
+
+    /**
+     * The entry point of the headless emulator. Exits with status 0 if the program halts,
+     * or 1 if it fails.
+     * @param args the options, listed by printHelp()
+     */
+    public static void main(java.lang.String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--keys") && i + 1 < args.length) {
+                scheduleKeys(Paths.get(args[++i]));
+            }
+            else if (args[i].equals("--snapshot") && i + 1 < args.length) {
+                snapshotFile = Paths.get(args[++i]);
+            }
+            else if (args[i].equals("--every") && i + 1 < args.length) {
+                snapshotPeriod = Long.parseLong(args[++i]);
+            }
+            else {
+                printHelp();
+                System.exit(2);
+            }
+        }
+
+        if (snapshotPeriod > 0) {
+            if (snapshotFile == null) {
+                printHelp();
+                System.exit(2);
+            }
+            schedulePeriodicSnapshot(snapshotPeriod);
+        }
+
+        int status = 0;
+        try {
+            // Starts from Sys.init, or from a snapshot if one is given
+            HackSnapshot.start();
+        } catch (RuntimeException e) {
+            if (!e.getStackTrace()[0].getMethodName().equals("halt")) {
+                e.printStackTrace();
+                status = 1;
+            }
+        }
+
+        if (snapshotFile != null) {
+            writeScreen(snapshotFile);
+        }
+        System.exit(status);
+    }
+
+
+    /**
+     * Schedules the keys in the given script. Each line of the script holds a time in
+     * milliseconds on the HackClock, followed by the JackOS character to place in the
+     * keyboard memory map at that time (0 releases the key), or the word "snapshot" to write the
+     * screen to the next numbered snapshot file. Blank lines and lines starting with # are
+     * ignored. If the first line is HackInput.STEPS_HEADER, the times are steps of the program
+     * instead, and the keys are placed exactly at those steps. Such a script may not hold
+     * snapshot lines, since the steps are not on the HackClock; use --every or --snapshot.
+     */
+    public static void scheduleKeys(Path script) throws IOException {
+        List<java.lang.String> lines = Files.readAllLines(script);
+        boolean inSteps = !lines.isEmpty() && lines.get(0).trim().equals(HackInput.STEPS_HEADER);
+        ArrayList<Long> keySteps = new ArrayList<>();
+        ArrayList<Short> keys = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            java.lang.String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            java.lang.String[] fields = line.split("\\s+");
+            if (inSteps && fields.length > 1 && fields[1].equals("snapshot")) {
+                throw new IllegalArgumentException(script.getFileName() + ": Line " + (i + 1)
+                    + ": snapshots cannot be timed in steps");
+            }
+            try {
+                long time = Long.parseLong(fields[0]);
+                if (inSteps) {
+                    keySteps.add(time);
+                    keys.add(Short.parseShort(fields[1]));
+                }
+                else if (fields[1].equals("snapshot")) {
+                    HackClock.schedule(time, HackHeadless::snapshot);
+                } else {
+                    short key = Short.parseShort(fields[1]);
+                    HackClock.schedule(time, () -> HackComputer.pressKey(key));
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(script.getFileName() + ": Line " + (i + 1)
+                    + ": expected a time and a key");
+            }
+        }
+
+        if (inSteps) {
+            long[] stepArray = new long[keys.size()];
+            short[] keyArray = new short[keys.size()];
+            for (int i = 0; i < keyArray.length; i++) {
+                stepArray[i] = keySteps.get(i);
+                keyArray[i] = keys.get(i);
+            }
+            HackComputer.setKeySteps(stepArray, keyArray);
+        }
+    }
+
+
+    /**
+     * Schedules a snapshot at the given time on the HackClock, and every snapshotPeriod
+     * milliseconds after it
+     */
+    private static void schedulePeriodicSnapshot(long time) {
+        HackClock.schedule(time, () -> {
+            snapshot();
+            schedulePeriodicSnapshot(time + snapshotPeriod);
+        });
+    }
+
+
+    /**
+     * Writes the screen to the next numbered snapshot file, for example screen-0001.png for
+     * the snapshot file screen.png
+     */
+    private static synchronized void snapshot() {
+        if (snapshotFile == null) {
+            return;
+        }
+        java.lang.String name = snapshotFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            dot = name.length();
+        }
+        snapshotCount++;
+        name = name.substring(0, dot) + java.lang.String.format("-%04d", snapshotCount)
+            + name.substring(dot);
+        try {
+            writeScreen(snapshotFile.resolveSibling(name));
+        } catch (IOException e) {
+            System.err.println("Failed to write snapshot: " + name);
+        }
+    }
+
+
+    /**
+     * Writes the screen to the given file, as a PBM image if the file name ends in .pbm, or
+     * a PNG image otherwise. The screen is copied again until the copy shows it at a single
+     * point in time, so that a snapshot taken while the program draws is never torn.
+     */
+    public static void writeScreen(Path file) throws IOException {
+        short[] frame = new short[HackComputer.SCREEN_END - HackComputer.SCREEN + 1];
+        while (!HackComputer.copyScreen(frame)) {
+            LockSupport.parkNanos(COPY_RETRY_NANOS);
+        }
+        writeScreen(frame, file);
+    }
+
+
+    /**
+     * Writes a copy of the screen memory map to the given file, as a PBM image if the file
+     * name ends in .pbm, or a PNG image otherwise
+     */
+    public static void writeScreen(short[] frame, Path file) throws IOException {
+        // Both formats store 8 pixels per byte, with the leftmost pixel in the highest bit;
+        // the Hack screen has the leftmost pixel of each word in the lowest bit
+        byte[] pixels = new byte[frame.length * 2];
+        for (int i = 0; i < frame.length; i++) {
+            pixels[i * 2] = (byte) (Integer.reverse(frame[i] & 0xFF) >>> 24);
+            pixels[i * 2 + 1] = (byte) (Integer.reverse((frame[i] >> 8) & 0xFF) >>> 24);
+        }
+
+        if (file.getFileName().toString().endsWith(".pbm")) {
+            try (OutputStream out = Files.newOutputStream(file)) {
+                out.write(("P4\n" + WIDTH + " " + HEIGHT + "\n").getBytes("US-ASCII"));
+                out.write(pixels);
+            }
+        } else {
+            byte[] colors = { (byte) 255, 0 };
+            BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_BINARY,
+                new IndexColorModel(1, 2, colors, colors, colors));
+            byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            System.arraycopy(pixels, 0, data, 0, data.length);
+            ImageIO.write(image, "png", file.toFile());
+        }
+    }
+
+
+    /**
+     * Prints the options of the headless emulator
+     */
+    private static void printHelp() {
+        System.out.println("SYNTAX");
+        System.out.println("HackHeadless [options]");
+        System.out.println("\tRuns the compiled Jack program in the current class path without a window.");
+        System.out.println();
+        System.out.println("OPTIONS");
+        System.out.println("--keys <file>");
+        System.out.println("\tPresses keys at given times. Each line of the file holds a time in");
+        System.out.println("\tmilliseconds and a JackOS character code (0 to release the key), or");
+        System.out.println("\tthe word snapshot to write a numbered snapshot at that time.");
+        System.out.println("--snapshot <file>");
+        System.out.println("\tWrites the screen to a PNG file, or a PBM file if the name ends in .pbm,");
+        System.out.println("\twhen the program ends.");
+        System.out.println("--every <ms>");
+        System.out.println("\tAlso writes numbered snapshots (file-0001.png, ...) every ms milliseconds.");
+    }
+
+}
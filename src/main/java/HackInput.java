@@ -0,0 +1,86 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This file records the keyboard input of programs running on the JHack emulator, a Java-based
+ * emulator of the Nand to Tetris Hack computer.
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Records every change to the keyboard memory map made by JHack, so that the session can be
+ * replayed with the jhack.replay property of JHack, or the --keys option of HackHeadless.
+ * Each line of a recording holds a time and the key placed in the keyboard memory map at that
+ * time, the same as a HackHeadless keys file. The times are measured on the HackClock, or in
+ * steps of the program; only programs compiled with the --count-steps option count steps, but
+ * their recordings replay exactly, since each key reaches the program at the same point.
+ * A recording in steps is written by the thread running the program, as it reads each change
+ * from the keyboard memory map, so that the step recorded is the one the program was at.
+ */
+public class HackInput {
+
+	/** The first line of a recording timed in steps rather than milliseconds */
+	public static final java.lang.String STEPS_HEADER = "# JHack input, times in steps";
+
+	// The first line of a recording timed in milliseconds on the HackClock
+	private static final java.lang.String CLOCK_HEADER = "# JHack input, times in milliseconds";
+
+	// The recording being written, or null
+	private static PrintWriter recording;
+
+	// Whether the recording is timed in steps
+	private static boolean inSteps;
+
+	// The last key recorded, to leave out the repeats of a key held down
+	private static short lastKey;
+
+	/**
+	 * Starts recording the keyboard input to the given file
+	 * @param inSteps whether to time the input in steps of the program, instead of milliseconds
+	 */
+	public static synchronized void startRecording(Path file, boolean inSteps) throws IOException {
+		recording = new PrintWriter(Files.newBufferedWriter(file));
+		HackInput.inSteps = inSteps;
+		recording.println(inSteps ? STEPS_HEADER : CLOCK_HEADER);
+		recording.flush();
+	}
+
+	/**
+	 * Records a change to the keyboard memory map as the key is pressed, if a recording timed
+	 * in milliseconds was started
+	 * @param key the new value of the keyboard memory map
+	 */
+	public static synchronized void keyChanged(short key) {
+		if (recording != null && !inSteps) {
+			record(HackClock.millis(), key);
+		}
+	}
+
+	/**
+	 * Records a change to the keyboard memory map as the program reads it, if a recording timed
+	 * in steps was started. Called by HackComputer on the thread running the program.
+	 * @param key the new value of the keyboard memory map
+	 */
+	public static synchronized void keyRead(short key) {
+		if (recording != null && inSteps) {
+			record(HackComputer.getSteps(), key);
+		}
+	}
+
+	/**
+	 * Writes a line of the recording, unless the key is the same as the last one recorded
+	 */
+	private static void record(long time, short key) {
+		if (key == lastKey) {
+			return;
+		}
+		lastKey = key;
+		recording.println(time + " " + key);
+		// Each line is written out at once, so that the recording survives the JVM exiting
+		recording.flush();
+	}
+
+}
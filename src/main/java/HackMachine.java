@@ -0,0 +1,377 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This file runs independent Hack computers side by side in one JVM with the JHack emulator,
+ * a Java-based emulator of the Nand to Tetris Hack computer.
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Hack computer running a compiled Jack program, isolated from any other HackMachine in the
+ * same JVM. The memory of the Hack computer, the JackOS and the program itself are all kept in
+ * static fields, so each HackMachine loads its own copy of these classes with its own class
+ * loader. Loading the classes again costs some time and memory for each machine, but leaves
+ * the compiled code exactly as fast as with a single machine.
+ *
+ * System properties such as jhack.ram and jhack.clock apply to every machine. Machines cannot
+ * map their RAM to a file with jhack.ram, since they would all map the same file.
+ *
+ * A machine can be given limits on its running time, its CPU time, and the number of steps of
+ * its program. When a limit is exceeded, the program is stopped at its next yield point or RAM
+ * access, and run() reports the limit and where the program was.
+ */
+public class HackMachine implements Closeable {
+
+	// Loads the classes of this machine
+	private final MachineLoader loader;
+
+	// The Sys.init method of this machine
+	private final Method init;
+
+	// The HackComputer methods of this machine
+	private final Method peek, poke, copyScreen;
+
+	// The HackHeadless.scheduleKeys method of this machine
+	private final Method scheduleKeys;
+
+	// The HackComputer.setStepLimit method of this machine
+	private final Method setStepLimit;
+
+	// The HackClock.stop method of this machine
+	private final Method stopClock;
+
+	// The limits on the running time and CPU time of the program in milliseconds, and on the
+	// number of steps it takes; 0 for no limit
+	private long timeLimit, cpuLimit, stepLimit;
+
+	// The reason the watchdog stopped the program, or null if it has not
+	private java.lang.String stopReason;
+
+	// Whether the program has finished running, after which the watchdog must not stop it
+	private boolean finished;
+
+	// Checks the time limits of all running machines
+	private static final ScheduledExecutorService watchdog =
+		Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "HackMachine watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+	// The time between checks of the time limits, in milliseconds
+	private static final long WATCHDOG_PERIOD = 20;
+
+	/**
+	 * Creates a machine for the compiled program in the given directory. The JackOS and the
+	 * emulator classes are loaded from the same place as this class, unless the program
+	 * directory provides its own.
+	 * @param programDir the directory holding the class files of the program
+	 */
+	public HackMachine(Path programDir) {
+		this(toURL(programDir), HackMachine.class.getProtectionDomain().getCodeSource().getLocation());
+	}
+
+	/**
+	 * Creates a machine that loads its classes from the given class path
+	 * @param classPath the directories and JAR files holding the program, the JackOS and the
+	 * emulator, searched in order
+	 * @throws IllegalStateException if the jhack.ram property maps the RAM to a file
+	 */
+	public HackMachine(URL... classPath) {
+		if (System.getProperty("jhack.ram", "heap").startsWith("file:")) {
+			throw new IllegalStateException("A HackMachine cannot map its RAM to a file");
+		}
+		loader = new MachineLoader(classPath);
+		try {
+			init = loader.loadClass("Sys").getMethod("init");
+			Class<?> computer = loader.loadClass("HackComputer");
+			peek = computer.getMethod("inspect", int.class);
+			poke = computer.getMethod("poke", int.class, int.class);
+			copyScreen = computer.getMethod("copyScreen", short[].class);
+			scheduleKeys = loader.loadClass("HackHeadless").getMethod("scheduleKeys", Path.class);
+			setStepLimit = computer.getMethod("setStepLimit", long.class);
+			stopClock = loader.loadClass("HackClock").getMethod("stop");
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("Not a JHack class path", e);
+		}
+	}
+
+	/**
+	 * Sets the longest time the program may run for
+	 * @param millis the time in milliseconds, or 0 for no limit
+	 */
+	public void setTimeLimit(long millis) {
+		timeLimit = millis;
+	}
+
+	/**
+	 * Sets the most CPU time the program may use. CPU time is not measured on virtual threads.
+	 * @param millis the time in milliseconds, or 0 for no limit
+	 */
+	public void setCpuLimit(long millis) {
+		cpuLimit = millis;
+	}
+
+	/**
+	 * Sets the most steps the program may take: one at the entry of each function, and one at
+	 * each label. Only programs compiled with the --count-steps option count their steps.
+	 * @param steps the number of steps, or 0 for no limit
+	 */
+	public void setStepLimit(long steps) {
+		stepLimit = steps;
+	}
+
+	/**
+	 * Runs the program on the calling thread until it halts. Several machines can run at the
+	 * same time on different threads.
+	 * @throws RuntimeException the exception that ended the program, if it did not halt; if
+	 * the program exceeded a limit, its message names the limit and where the program was
+	 */
+	public void run() {
+		Thread thread = Thread.currentThread();
+		ScheduledFuture<?> check = null;
+		if (stepLimit > 0) {
+			invoke(setStepLimit, stepLimit);
+		}
+		if (timeLimit > 0 || cpuLimit > 0) {
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			long threadId = getThreadId(thread);
+			long start = System.nanoTime();
+			long cpuStart = cpuLimit > 0 ? threads.getCurrentThreadCpuTime() : 0;
+			check = watchdog.scheduleAtFixedRate(() -> {
+				if (timeLimit > 0 && System.nanoTime() - start > timeLimit * 1_000_000) {
+					stop(thread, "Time limit exceeded");
+				}
+				else if (cpuLimit > 0
+						&& threads.getThreadCpuTime(threadId) - cpuStart > cpuLimit * 1_000_000) {
+					stop(thread, "CPU time limit exceeded");
+				}
+			}, WATCHDOG_PERIOD, WATCHDOG_PERIOD, TimeUnit.MILLISECONDS);
+		}
+
+		try {
+			init.invoke(null);
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException
+					&& cause.getStackTrace()[0].getMethodName().equals("halt")) {
+				return;
+			}
+			synchronized (this) {
+				if (stopReason != null) {
+					throw new RuntimeException(stopReason + " at " + findLocation(cause), cause);
+				}
+			}
+			if (cause.getMessage() != null && cause.getMessage().equals("Step limit exceeded")) {
+				throw new RuntimeException(cause.getMessage() + " at " + findLocation(cause), cause);
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			if (check != null) {
+				check.cancel(false);
+			}
+			synchronized (this) {
+				finished = true;
+			}
+			// Clear an interrupt from a watchdog check that ran as the program finished
+			Thread.interrupted();
+		}
+	}
+
+	/**
+	 * Stops the program running on the given thread, unless it has already finished. The
+	 * interrupt makes the next yield point or RAM access of the program throw an exception.
+	 */
+	private synchronized void stop(Thread thread, java.lang.String reason) {
+		if (!finished && stopReason == null) {
+			stopReason = reason;
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * Returns the ID of the given thread. Thread.threadId() replaced the deprecated getId() in
+	 * Java 19, so the method is looked up at run time to keep the emulator running on earlier
+	 * versions.
+	 */
+	private static long getThreadId(Thread thread) {
+		try {
+			Method threadId;
+			try {
+				threadId = Thread.class.getMethod("threadId");
+			} catch (NoSuchMethodException e) {
+				threadId = Thread.class.getMethod("getId");
+			}
+			return (long) threadId.invoke(thread);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the place in the compiled program where the given exception was thrown: the
+	 * first frame of its stack trace from a VM or Jack file, or else the first frame that is
+	 * not in the JDK or in the HackComputer and HackClock classes, such as a JackOS function
+	 */
+	private static java.lang.String findLocation(Throwable e) {
+		StackTraceElement[] trace = e.getStackTrace();
+		for (StackTraceElement frame : trace) {
+			java.lang.String file = frame.getFileName();
+			if (file != null && (file.endsWith(".vm") || file.endsWith(".jack"))) {
+				return frame.toString();
+			}
+		}
+		for (StackTraceElement frame : trace) {
+			if (!isEmulatorFrame(frame)) {
+				return frame.toString();
+			}
+		}
+		return trace.length > 0 ? trace[0].toString() : "an unknown location";
+	}
+
+	/**
+	 * Returns whether the given frame is in the JDK, or in the classes that the program calls
+	 * to reach the RAM and the clock
+	 */
+	private static boolean isEmulatorFrame(StackTraceElement frame) {
+		java.lang.String name = frame.getClassName();
+		return name.startsWith("java.") || name.startsWith("jdk.") || name.startsWith("sun.")
+			|| name.equals("HackComputer") || name.equals("HackClock");
+	}
+
+	/**
+	 * Returns a value from the RAM of this machine. Reading the keyboard memory map does not
+	 * take the keys queued for the program.
+	 */
+	public short peek(int address) {
+		return (short) invoke(peek, address);
+	}
+
+	/**
+	 * Stores a value in the RAM of this machine; for example, a key in the keyboard memory map
+	 */
+	public void poke(int value, int address) {
+		invoke(poke, value, address);
+	}
+
+	/**
+	 * Copies the screen memory map of this machine into the given array
+	 * @see HackComputer#copyScreen(short[])
+	 */
+	public void copyScreen(short[] frame) {
+		invoke(copyScreen, frame);
+	}
+
+	/**
+	 * Schedules the keys in the given script on the clock of this machine
+	 * @see HackHeadless#scheduleKeys(Path)
+	 */
+	public void scheduleKeys(Path script) {
+		invoke(scheduleKeys, script);
+	}
+
+	/**
+	 * Returns the class of the given name as loaded by this machine, for example to read the
+	 * static fields of a class of the program
+	 */
+	public Class<?> getMachineClass(java.lang.String name) throws ClassNotFoundException {
+		return loader.loadClass(name);
+	}
+
+	/**
+	 * Stops the clock of this machine, cancelling any keys still scheduled on it, and closes
+	 * the class loader of this machine. The machine must not be running.
+	 */
+	@Override
+	public void close() throws IOException {
+		invoke(stopClock);
+		loader.close();
+	}
+
+	/**
+	 * Calls a static method of this machine
+	 */
+	private static Object invoke(Method method, Object... args) {
+		try {
+			return method.invoke(null, args);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the URL of the given directory
+	 */
+	private static URL toURL(Path dir) {
+		try {
+			return dir.toUri().toURL();
+		} catch (MalformedURLException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * Loads classes from its own class path before asking its parent, so that every machine
+	 * has its own copy of the classes it finds, instead of sharing the ones loaded by the
+	 * application
+	 */
+	private static class MachineLoader extends URLClassLoader {
+
+		static {
+			registerAsParallelCapable();
+		}
+
+		private MachineLoader(URL[] classPath) {
+			super(classPath, HackMachine.class.getClassLoader());
+		}
+
+		@Override
+		protected Class<?> loadClass(java.lang.String name, boolean resolve)
+				throws ClassNotFoundException {
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> c = findLoadedClass(name);
+				if (c == null && !name.startsWith("java.")) {
+					try {
+						c = findClass(name);
+					} catch (ClassNotFoundException e) {
+					}
+				}
+				if (c == null) {
+					return super.loadClass(name, resolve);
+				}
+				if (resolve) {
+					resolveClass(c);
+				}
+				return c;
+			}
+		}
+	}
+
+}
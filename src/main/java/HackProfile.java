@@ -0,0 +1,116 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This file collects the execution counters of instrumented programs on the JHack emulator,
+ * a Java-based emulator of the Nand to Tetris Hack computer.
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Collects the execution counters of classes compiled by VMtoClass with the --instrument option,
+ * and writes them to a profile file when the JVM exits. The file is named by the jhack.profile
+ * system property, or jhack.profile by default; it can be passed back to VMtoClass with the
+ * --profile option to optimize the program. The most frequently executed functions and loops
+ * can also be printed while the program runs.
+ */
+public class HackProfile {
+
+	// The names of the counters registered by each class
+	private static ArrayList<java.lang.String[]> names = new ArrayList<>();
+
+	// The counters registered by each class
+	private static ArrayList<long[]> counters = new ArrayList<>();
+
+	// The number of rows printed in each table of the most frequently executed code
+	private static final int HOT_ROWS = 20;
+
+	/**
+	 * Registers the execution counters of an instrumented class. This is called by the
+	 * static initializer of the class.
+	 * @param chunks the names of the counters, separated by line breaks
+	 * @return the array of counters, which the class increments directly
+	 */
+	public static synchronized long[] register(java.lang.String chunks[]) {
+		if (names.isEmpty()) {
+			Runtime.getRuntime().addShutdownHook(new Thread(HackProfile::save));
+		}
+		java.lang.String[] classNames = java.lang.String.join("", chunks).split("\n");
+		long[] classCounters = new long[classNames.length];
+		names.add(classNames);
+		counters.add(classCounters);
+		return classCounters;
+	}
+
+	/**
+	 * Writes all the registered counters to the profile file
+	 */
+	public static synchronized void save() {
+		java.lang.String file = System.getProperty("jhack.profile", "jhack.profile");
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file)))) {
+			out.println("# JHack execution profile");
+			for (int i = 0; i < names.size(); i++) {
+				for (int j = 0; j < names.get(i).length; j++) {
+					out.println(names.get(i)[j] + " " + counters.get(i)[j]);
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Failed to write profile: " + file);
+		}
+	}
+
+
+	/**
+	 * Returns whether any instrumented classes have registered their counters
+	 */
+	public static synchronized boolean isEnabled() {
+		return !names.isEmpty();
+	}
+
+
+	/**
+	 * Prints the most frequently called functions and the most frequently reached labels, which
+	 * are usually the heads of loops, with their counts
+	 * @param out the stream to print to
+	 */
+	public static synchronized void printHotTable(PrintStream out) {
+		printHotTable(out, "function ", "Hot functions");
+		printHotTable(out, "label ", "Hot loops");
+	}
+
+
+	/**
+	 * Prints the counters whose names start with the given prefix, in decreasing order
+	 */
+	private static void printHotTable(PrintStream out, java.lang.String prefix,
+			java.lang.String title) {
+		ArrayList<java.lang.String> rowNames = new ArrayList<>();
+		ArrayList<Long> rowCounts = new ArrayList<>();
+		for (int i = 0; i < names.size(); i++) {
+			for (int j = 0; j < names.get(i).length; j++) {
+				if (names.get(i)[j].startsWith(prefix) && counters.get(i)[j] > 0) {
+					rowNames.add(names.get(i)[j].substring(prefix.length()));
+					rowCounts.add(counters.get(i)[j]);
+				}
+			}
+		}
+
+		Integer[] order = new Integer[rowNames.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(rowCounts.get(b), rowCounts.get(a)));
+
+		out.println(title + ":");
+		for (int i = 0; i < order.length && i < HOT_ROWS; i++) {
+			out.printf("%15d  %s%n", rowCounts.get(order[i]), rowNames.get(order[i]));
+		}
+	}
+
+}
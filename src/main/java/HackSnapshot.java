@@ -0,0 +1,278 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This file saves and restores the state of programs running on the JHack emulator, a
+ * Java-based emulator of the Nand to Tetris Hack computer.
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Saves the state of a program after its initialization, and restores it when the program is
+ * started again, so that the initialization is skipped. The state is the RAM and the static
+ * fields of the JackOS and of the compiled program; the JVM stack cannot be saved, so the
+ * program must be split into a setup function, which initializes it and returns, and a resume
+ * function, which runs the rest of it. For example, Main.main could become:
+ * <pre>
+ * function void main() {
+ *     do Main.setup();
+ *     do Main.play();
+ *     return;
+ * }
+ * </pre>
+ * Then "java HackSnapshot state.snap Main.setup" saves the state after Main.setup, and
+ * "java -Djhack.restore=state.snap -Djhack.resume=Main.play JHack" starts from that state.
+ */
+public class HackSnapshot {
+
+    // Identifies snapshot files, and the version of their format
+    private static final java.lang.String MAGIC = "JHack snapshot 1";
+
+    // The classes of the emulator itself, whose state is not part of the program
+    private static final List<java.lang.String> EMULATOR_CLASSES = Arrays.asList("HackBatch",
+        "HackClock", "HackDisplay", "HackHeadless", "HackInput", "HackMachine", "HackProfile",
+        "HackSnapshot", "JHack");
+
+    // The static fields of HackComputer that belong to the emulator rather than to the
+    // program: the keyboard queue and key events, the step counting, and the screen counter
+    private static final List<java.lang.String> EMULATOR_FIELDS = Arrays.asList(
+        "HackComputer.screenWrites", "HackComputer.steps", "HackComputer.stepLimit",
+        "HackComputer.keySteps", "HackComputer.keys", "HackComputer.nextKey",
+        "HackComputer.nextStepEvent", "HackComputer.keyHead", "HackComputer.keyTail",
+        "HackComputer.lastQueuedKey", "HackComputer.eventHead", "HackComputer.eventTail",
+        "HackComputer.keyEventsWanted", "HackComputer.keyWaiter", "HackComputer.idlePasses",
+        "HackComputer.idleKeyTail");
+
+    // The classes of the values that a snapshot may hold, besides arrays of them and of
+    // primitives; Number is the superclass of the boxed numbers
+    private static final List<Class<?>> STATE_CLASSES = Arrays.asList(java.lang.String.class,
+        Boolean.class, Character.class, Number.class, Byte.class, Short.class, Integer.class,
+        Long.class, Float.class, Double.class);
+
+    // Rejects any other class while a snapshot is read, so that a snapshot file cannot make
+    // restore() create arbitrary objects
+    private static final ObjectInputFilter FILTER = info -> {
+        Class<?> c = info.serialClass();
+        if (c == null) {
+            return ObjectInputFilter.Status.UNDECIDED;
+        }
+        return isStateClass(c) ? ObjectInputFilter.Status.ALLOWED
+            : ObjectInputFilter.Status.REJECTED;
+    };
+
+    /**
+     * Runs the initialization of the JackOS and the given setup function, then saves the state
+     * of the program
+     * @param args the snapshot file and the setup function, for example Main.setup
+     */
+    public static void main(java.lang.String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("SYNTAX");
+            System.out.println("HackSnapshot <file> <setupFunction>");
+            System.out.println("\tInitializes the JackOS and calls setupFunction, then saves the state of the");
+            System.out.println("\tprogram to file. Run JHack with -Djhack.restore=<file> and");
+            System.out.println("\t-Djhack.resume=<function> to continue from that state.");
+            System.exit(2);
+        }
+        System.setProperty("java.awt.headless", "true");
+        initOS();
+        call(args[1]);
+        save(Paths.get(args[0]));
+    }
+
+
+    /**
+     * Starts the program. If the jhack.restore property names a snapshot file, the state in
+     * it is restored and the function named by the jhack.resume property is called; otherwise
+     * the program starts from Sys.init as usual. Either way, this ends with Sys.halt.
+     */
+    public static void start() throws IOException {
+        java.lang.String file = System.getProperty("jhack.restore");
+        if (file == null) {
+            Sys.init();
+            return;
+        }
+        java.lang.String resume = System.getProperty("jhack.resume");
+        if (resume == null) {
+            throw new IllegalArgumentException("jhack.restore requires jhack.resume");
+        }
+        restore(Paths.get(file));
+        call(resume);
+        Sys.halt();
+    }
+
+
+    /**
+     * Runs the initialization of the JackOS, as Sys.init does before it calls Main.main
+     */
+    private static void initOS() {
+        Memory.init();
+        Math.init();
+        Screen.init();
+        Output.init();
+        Keyboard.init();
+    }
+
+
+    /**
+     * Calls the given function of the compiled program, which must take no arguments
+     * @param function the name of the function, such as Main.setup
+     */
+    private static void call(java.lang.String function) {
+        int dot = function.lastIndexOf('.');
+        java.lang.String name = function.substring(dot + 1);
+        try {
+            Method method = Class.forName(function.substring(0, dot))
+                .getMethod(name.equals("new") ? "NEW" : name);
+            method.invoke(null);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (ReflectiveOperationException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Not a function without arguments: " + function);
+        }
+    }
+
+
+    /**
+     * Saves the RAM, the temp segment and the static fields of the program to a file
+     */
+    public static void save(Path file) throws IOException {
+        short[] ram = new short[HackComputer.RAM_END + 1];
+        HackComputer.copyRam(ram);
+        try (ObjectOutputStream out = new ObjectOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(file)))) {
+            out.writeUTF(MAGIC);
+            out.writeObject(ram);
+            for (Field field : getStateFields()) {
+                Object value = field.get(null);
+                if (value == null || isStateClass(value.getClass())) {
+                    out.writeUTF(field.getDeclaringClass().getName());
+                    out.writeUTF(field.getName());
+                    out.writeObject(value);
+                }
+            }
+            // An empty class name ends the fields
+            out.writeUTF("");
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * Restores the state saved by save(). The RAM is loaded in one copy, and the static fields
+     * are set directly.
+     * @throws IllegalArgumentException if the file is not a snapshot of this program
+     */
+    public static void restore(Path file) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(
+                new GZIPInputStream(Files.newInputStream(file)))) {
+            in.setObjectInputFilter(FILTER);
+            if (!in.readUTF().equals(MAGIC)) {
+                throw new IllegalArgumentException("Not a JHack snapshot: " + file);
+            }
+            HackComputer.loadRam((short[]) in.readObject());
+            for (java.lang.String className = in.readUTF(); !className.isEmpty();
+                    className = in.readUTF()) {
+                Field field = Class.forName(className).getDeclaredField(in.readUTF());
+                field.setAccessible(true);
+                field.set(null, in.readObject());
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Snapshot does not match the program: " + e);
+        }
+    }
+
+
+    /**
+     * Returns the static fields that hold the state of the JackOS and the compiled program:
+     * the non-final static fields of every class in the directories of the class path, except
+     * the classes and fields of the emulator itself, and the execution counters of instrumented
+     * classes. The classes are not initialized here, so that no static initializer runs for a
+     * class that only happens to be on the class path.
+     */
+    private static List<Field> getStateFields() {
+        TreeSet<java.lang.String> classNames = new TreeSet<>();
+        for (java.lang.String entry : getClassPath()) {
+            java.lang.String[] files = new File(entry).list();
+            if (files == null) {
+                continue;
+            }
+            for (java.lang.String name : files) {
+                if (name.endsWith(".class") && !name.contains("$")) {
+                    classNames.add(name.substring(0, name.length() - ".class".length()));
+                }
+            }
+        }
+        classNames.removeAll(EMULATOR_CLASSES);
+
+        ArrayList<Field> fields = new ArrayList<>();
+        for (java.lang.String className : classNames) {
+            Class<?> c;
+            try {
+                c = Class.forName(className, false, HackSnapshot.class.getClassLoader());
+            } catch (ClassNotFoundException | LinkageError e) {
+                continue;
+            }
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers)
+                        && !EMULATOR_FIELDS.contains(className + "." + field.getName())
+                        && !field.getName().equals("$counters")) {
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+        }
+        return fields;
+    }
+
+
+    /**
+     * Returns whether values of the given class may be saved in a snapshot: strings, boxed
+     * primitives, and arrays of these or of primitives
+     */
+    private static boolean isStateClass(Class<?> c) {
+        while (c.isArray()) {
+            c = c.getComponentType();
+        }
+        return c.isPrimitive() || STATE_CLASSES.contains(c);
+    }
+
+
+    /**
+     * Returns the directories of the class path, including the one holding this class
+     */
+    private static List<java.lang.String> getClassPath() {
+        ArrayList<java.lang.String> entries = new ArrayList<>(Arrays.asList(
+            System.getProperty("java.class.path").split(File.pathSeparator)));
+        try {
+            entries.add(Paths.get(HackSnapshot.class.getProtectionDomain().getCodeSource()
+                .getLocation().toURI()).toString());
+        } catch (URISyntaxException | SecurityException e) {
+        }
+        return entries;
+    }
+
+}
@@ -0,0 +1,51 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This file holds the string literals of programs running on the JHack emulator, a Java-based
+ * emulator of the Nand to Tetris Hack computer.
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+import java.util.HashMap;
+
+/**
+ * Holds the string literals of programs compiled by VMtoClass with the --intern-strings
+ * option. Each distinct literal is constructed once, using String.new and String.appendChar,
+ * and shared by every place that uses it. Programs that modify or dispose of string literals
+ * must not use that option.
+ */
+public class HackStrings {
+
+	// The pointers to the Strings in Hack memory, by their text
+	private static HashMap<java.lang.String, Short> literals = new HashMap<>();
+
+	// Whether each address in Hack memory is a pointer to a shared literal
+	private static boolean isLiteral[] = new boolean[HackComputer.RAM_END + 1];
+
+	/**
+	 * Returns a String in Hack memory holding the given text, constructing it the first time
+	 * the text is requested.
+	 * @param text the text of the string literal
+	 * @return a pointer to the String in Hack memory
+	 */
+	public static short literal(java.lang.String text) {
+		Short str = literals.get(text);
+		if (str == null) {
+			str = String.NEW((short) text.length());
+			for (int i = 0; i < text.length(); i++) {
+				String.appendChar(str, (short) text.charAt(i));
+			}
+			literals.put(text, str);
+			isLiteral[str] = true;
+		}
+		return str;
+	}
+
+	/**
+	 * Returns whether the given pointer is a shared string literal
+	 * @param str a pointer to a String in Hack memory
+	 */
+	public static boolean isLiteral(short str) {
+		return str >= 0 && isLiteral[str];
+	}
+
+}
@@ -9,6 +9,9 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.concurrent.ExecutionException;
 import javax.swing.JFrame;
 import javax.swing.SwingWorker;
@@ -25,23 +28,27 @@ public class JHack extends JFrame implements KeyListener {
     // Used to periodically refresh the screen
     private Timer timer;
 
+    // The shortest time between frames, in milliseconds; set with the jhack.fps property
+    private int frameDelay;
+
+    // The longest time between checks for changes to the screen while it is not changing
+    private static final int IDLE_DELAY = 250;
+
     // Whether the SHIFT key is currently pressed
     private boolean shift;
 
     // Whether CAPS LOCK is toggled on or off; set to true if you want CAPS LOCK on by default
     private boolean caps_lock;
 
+    // Whether the keyboard input is replayed from a recording, instead of typed
+    private boolean replaying;
+
     /**
      * The entry point of the JHack emulator program
      * @param args currenly unused
      */
     public static void main(java.lang.String[] args) {
 
-        // Set the scale to something sensible
-        if (System.getProperty("sun.java2d.uiScale") == null) {
-            System.setProperty("sun.java2d.uiScale", "2.0");
-        }
-
         javax.swing.SwingUtilities.invokeLater(new Runnable() {
             public void run() {
                 startGUI();
@@ -77,7 +84,8 @@ public class JHack extends JFrame implements KeyListener {
      * Adds a HackDisply to the JFrame and sets this class as the KeyEvent handler
      */
     public void addComponents() {
-        display = new HackDisplay();
+        // The display scales itself, so the rest of Swing keeps its normal size
+        display = new HackDisplay(Integer.parseInt(System.getProperty("jhack.scale", "2")));
         // This class will now handle keyboard input to the display
         display.addKeyListener(this);
         getContentPane().add(display);
@@ -85,37 +93,96 @@ public class JHack extends JFrame implements KeyListener {
 
 
     /**
-     * Sets a timer to periodically refresh the screen
+     * Sets a timer to refresh the screen when it changes. The timer runs at the frame rate
+     * set by the jhack.fps property (60 by default) while the screen is changing, and slows
+     * down while it is not, so that an idle program uses almost no time on repainting.
      */
     public void refreshScreen() {
+        int fps = Integer.parseInt(System.getProperty("jhack.fps", "60"));
+        frameDelay = 1000 / java.lang.Math.max(fps, 1);
         timer = new Timer(0, new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                display.repaint();
-                display.requestFocusInWindow();
+                // A program waiting for frames with Sys.waitFrame keeps the full frame rate, and
+                // gets a frame painted even if it has not drawn anything since the last one
+                boolean requested = HackClock.takeFrameRequest();
+                if (display.repaintDirty()) {
+                    timer.setDelay(frameDelay);
+                } else if (requested) {
+                    display.repaint(0, 0, 1, 1);
+                    timer.setDelay(frameDelay);
+                } else {
+                    timer.setDelay(java.lang.Math.min(timer.getDelay() * 2,
+                        java.lang.Math.max(frameDelay, IDLE_DELAY)));
+                }
             }
         });
         timer.setRepeats(true);
-        // Aprox. 60 FPS
-        timer.setDelay(17);
+        timer.setDelay(frameDelay);
         timer.start();
+        display.requestFocusInWindow();
+        startInput();
         // Tell the Jack program to start
         Worker app = new Worker();
         app.execute();
     }
 
 
+    /**
+     * Starts replaying the keyboard input from the file named by the jhack.replay property,
+     * and recording it to the file named by the jhack.record property. The recording is timed
+     * in steps of the program if the jhack.record.time property is "steps", or in milliseconds
+     * otherwise.
+     */
+    private void startInput() {
+        try {
+            java.lang.String replay = System.getProperty("jhack.replay");
+            if (replay != null) {
+                HackHeadless.scheduleKeys(Paths.get(replay));
+                replaying = true;
+            }
+            java.lang.String record = System.getProperty("jhack.record");
+            if (record != null) {
+                HackInput.startRecording(Paths.get(record),
+                    "steps".equals(System.getProperty("jhack.record.time")));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * Returns the screen refresh to the full frame rate, since the program is likely to draw
+     * something in response to a key
+     */
+    private void wakeRefresh() {
+        if (timer.isRunning() && timer.getDelay() > frameDelay) {
+            timer.setDelay(frameDelay);
+            timer.restart();
+        }
+    }
+
+
     /** 
      * Sets the Hack keyboard memory map to contain the key currently pressed, and updates
      * the status of the SHIFT and CAPS LOCK keys
      */
     public void keyPressed(KeyEvent e) {
         short k = (short) e.getKeyCode();
+        // CTRL+F12 prints the execution counters of an instrumented program
+        if (k == KeyEvent.VK_F12 && e.isControlDown() && HackProfile.isEnabled()) {
+            HackProfile.printHotTable(System.out);
+            return;
+        }
         if (k == KeyEvent.VK_SHIFT) {
             shift = true;
-        } else {
-            HackComputer.poke(convertKey(k), HackComputer.KBD);
+        } else if (!replaying) {
+            short key = convertKey(k);
+            HackComputer.pressKey(key);
+            HackInput.keyChanged(key);
         }
+        wakeRefresh();
     }
 
 
@@ -129,7 +196,11 @@ public class JHack extends JFrame implements KeyListener {
         else if (e.getKeyCode() == KeyEvent.VK_CAPS_LOCK) {
             caps_lock = !caps_lock;
         }
-        HackComputer.poke((short) 0, HackComputer.KBD);
+        if (!replaying) {
+            HackComputer.pressKey((short) 0);
+            HackInput.keyChanged((short) 0);
+        }
+        wakeRefresh();
     }
 
 
@@ -145,13 +216,17 @@ public class JHack extends JFrame implements KeyListener {
      */
     private class Worker extends SwingWorker<Void, Void> {
         @Override
-        protected Void doInBackground() {
-            Sys.init();
+        protected Void doInBackground() throws IOException {
+            // Starts from Sys.init, or from a snapshot if one is given
+            HackSnapshot.start();
             return null;
         }
         
         @Override
         protected void done() {
+            // The screen cannot change any more, so show it one last time and stop refreshing
+            timer.stop();
+            display.repaintDirty();
         	try {
 				get();
 			} catch (InterruptedException e) {
@@ -160,6 +235,9 @@ public class JHack extends JFrame implements KeyListener {
 				// Print any exception that happened while the task executed 
                 if (e.getCause().getStackTrace()[0].getMethodName().equals("halt")) {
                     setTitle(getTitle() + " - HALTED");
+                    if (HackProfile.isEnabled()) {
+                        HackProfile.printHotTable(System.out);
+                    }
                 } else {
                     setTitle(getTitle() + " - ERROR");
                     e.getCause().printStackTrace();
@@ -49,10 +49,14 @@ public class Keyboard {
 	public static short readChar() {
     	short c = 0;
     	Output.printChar((short) 0);
+    	// The thread parks between reads instead of polling the keyboard memory map
     	while (c == 0) {
+    		HackComputer.awaitKeyboard(c);
          	c = HackComputer.peek(HackComputer.KBD);
      	}
-     	while (c == HackComputer.peek(HackComputer.KBD)) {}
+     	while (c == HackComputer.peek(HackComputer.KBD)) {
+     		HackComputer.awaitKeyboard(c);
+     	}
  		Output.backSpace();
      	if ((c > 31) & (c < 127)) {
      		Output.printChar(c);
@@ -60,6 +64,33 @@ public class Keyboard {
      	return c;
 	}
 
+	/**
+	 * Returns the oldest keyboard event not yet returned, without waiting:
+	 * the character of a key that was pressed, or the negated character of a
+	 * key that was released. Returns 0 if there is no event. Events are kept
+	 * even when keys are pressed and released between two calls, from the
+	 * first call of nextEvent(), pendingEvents() or waitEvent() on.
+	 */
+	public static short nextEvent() {
+		return HackComputer.takeKeyEvent();
+	}
+
+	/**
+	 * Returns the number of keyboard events that nextEvent() has not returned yet.
+	 */
+	public static short pendingEvents() {
+		return HackComputer.countKeyEvents();
+	}
+
+	/**
+	 * Waits until there is a keyboard event, then returns it like nextEvent().
+	 * The program sleeps while it waits, rather than polling the keyboard.
+	 */
+	public static short waitEvent() {
+		HackComputer.awaitKeyEvent();
+		return HackComputer.takeKeyEvent();
+	}
+
 	/**	
 	 * Displays the message on the screen, reads from the keyboard the entered
 	 * text until a newline character is detected, echoes the text to the screen,
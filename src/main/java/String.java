@@ -57,6 +57,10 @@ public class String {
      * @return The return value of this method is ignored.
      */
     public static short dispose(short me) {
+        // String literals are shared by every place that uses them, so they are never disposed
+        if (HackStrings.isLiteral(me)) {
+            return 0;
+        }
         strings[HackComputer.peek(me)] = null;
         Memory.deAlloc(me);
         return 0;
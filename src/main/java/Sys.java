@@ -45,7 +45,7 @@ public class Sys {
         }
 
         try {
-			Thread.sleep(duration);
+			HackClock.sleep(duration);
 		} catch (InterruptedException e) {
 			throw new RuntimeException("Unexpected interrupt");
 		}
@@ -53,6 +53,21 @@ public class Sys {
         return 0;
     }
 
+    /**
+     * Waits until the display has painted the next frame, so that a game can draw
+     * exactly once per frame. Without a display, waits until the next frame time
+     * at the frame rate set by the jhack.fps property (60 by default).
+     * @return The return value of this method is ignored.
+     */
+    public static short waitFrame() {
+        try {
+            HackClock.awaitFrame();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Unexpected interrupt");
+        }
+        return 0;
+    }
+
     /** 
      * Displays the given error code in the form "ERR [errorCode]",
      * and halts the program's execution.
@@ -10,8 +10,16 @@ package compiler;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.function.Consumer;
 import java.lang.classfile.ClassBuilder;
 import java.lang.classfile.CodeBuilder;
@@ -29,8 +37,21 @@ import compiler.Parser.Command;
  * Writes the Java bytecode translation of a Nand to Tetris Hack VM file
  */
 public class ClassWriter implements Consumer<ClassBuilder> {
-	
-	// The full path of the input VM file
+
+	// The greatest number of commands a function may have to be inlined
+	private static final int MAX_INLINE_SIZE = 16;
+
+	// An if-goto that jumps in no more than this fraction of executions (or in all but this
+	// fraction) has a rarely executed side that is moved out of the way of the other
+	private static final double COLD_RATIO = 0.1;
+
+	// The type of the $counters field
+	private static final ClassDesc CD_COUNTERS = ConstantDescs.CD_long.arrayType();
+
+	// The full paths of the input VM files
+	private List<Path> inputFiles;
+
+	// The full path of the input VM file currently being compiled
 	private Path inputFile;
 
 	// The full path of the output class file
@@ -39,8 +60,48 @@ public class ClassWriter implements Consumer<ClassBuilder> {
     // The name of the class
     private String className;
 
-    // The parser for the input file
-    private Parser parser;
+    // Whether all input files are compiled into a single class
+    private boolean merged;
+
+    // The functions of the input files, by the name of the VM class that each file defines
+    private LinkedHashMap<String, List<VMFunction>> sources = new LinkedHashMap<>();
+
+    // All the functions being compiled into the class, by their full names
+    private HashMap<String, VMFunction> functions = new HashMap<>();
+
+    // Whether to insert execution counters into the compiled code
+    private boolean instrumented;
+
+    // The names of the execution counters inserted so far; the index of a name is the index of
+    // the counter in the $counters array of the class
+    private ArrayList<String> counters = new ArrayList<>();
+
+    // The execution profile used to optimize the compiled code, or null
+    private Profile profile;
+
+    // Whether string literals are constructed once and shared, instead of on every use
+    private boolean internStrings;
+
+    // Whether objects that do not escape the function that creates them are replaced with
+    // local variables
+    private boolean escapeAnalysis;
+
+    // Whether yield points count steps against the step limit set in HackComputer
+    private boolean countSteps;
+
+    // Whether line numbers refer to the Jack source lines named in comments of the VM files,
+    // rather than to the lines of the VM files
+    private boolean jackLines;
+
+    // The Jack source lines named in comments of each VM file, by the index of each VM line
+    private HashMap<String, Map<Integer, Integer>> jackLineMaps = new HashMap<>();
+
+    // The Jack source file named in comments of each VM file
+    private HashMap<String, String> jackFiles = new HashMap<>();
+
+    // The string literals used so far; the index of a literal is the index of the static
+    // field that caches it
+    private ArrayList<String> strings = new ArrayList<>();
 
     // The exception to throw if a file operation fails
     private IOException ioException;
@@ -48,8 +109,13 @@ public class ClassWriter implements Consumer<ClassBuilder> {
     // The exception to throw if a compile fails
     private IllegalArgumentException argException;
 
-    // The number of static variables in the class
-    private int staticCount = 0;
+    // The number of static variables in each VM class, sorted by class so that the fields are
+    // written in the same order on every compile
+    private TreeMap<String, Integer> staticCounts = new TreeMap<>();
+
+    // The labels of the loops that only wait for input in each function, by the full name of
+    // the function; see findIdleLoops()
+    private HashMap<String, Set<String>> idleLoops = new HashMap<>();
 	
 
 	/**
@@ -61,39 +127,91 @@ public class ClassWriter implements Consumer<ClassBuilder> {
 		if (Files.isDirectory(inputFile)) {
 			throw new IllegalArgumentException("Input path must be a file.");
 		}
-		this.inputFile = inputFile;
+		inputFiles = List.of(inputFile);
+
+        className = getClassName(inputFile);
 
-		String name = inputFile.getFileName().toString();
+		outputFile = inputFile.getParent().resolve(className + ".class");
+		
+	}
+
+
+	/**
+	 * Constructs a new ClassWriter to write a single class containing all the functions of the
+	 * given files. Each function is renamed to [file]$[function], and each static variable
+	 * to [file]$static[index]. The class is written to the directory of the first file.
+	 * @param inputFiles the full paths of the input VM files
+	 * @param className the name of the class to write
+	 */
+	public ClassWriter(List<Path> inputFiles, String className) {
+		if (inputFiles.isEmpty()) {
+			throw new IllegalArgumentException("No input files.");
+		}
+		this.inputFiles = inputFiles.stream().map(Path::toAbsolutePath).toList();
+		for (Path file : this.inputFiles) {
+			if (Files.isDirectory(file)) {
+				throw new IllegalArgumentException("Input path must be a file.");
+			}
+			if (getClassName(file).equals(className)) {
+				throw new IllegalArgumentException("Class " + className + " is already defined by " + file);
+			}
+		}
+		this.className = className;
+		merged = true;
+
+		outputFile = this.inputFiles.get(0).getParent().resolve(className + ".class");
+
+	}
+
+
+	/**
+	 * Returns the name of the class defined by the given VM file
+	 */
+	private static String getClassName(Path file) {
+		String name = file.getFileName().toString();
 		if (name.contains(".")) {
 			name = name.substring(0, name.lastIndexOf("."));
 		}
-        className = name;
-
-		outputFile = inputFile.getParent().resolve(name + ".class");
-		
+		return name;
 	}
 
 
     /**
-     * Parses the input file and creates a class file
+     * Parses the input files and creates a class file
      */
     public void compile() throws IOException {
 
-        try {
-            parser = new Parser(inputFile);
-            parser.advance();
+        for (Path file : inputFiles) {
+            inputFile = file;
+            List<VMFunction> source;
+            try {
+                Parser parser = new Parser(inputFile);
+                parser.advance();
 
-            if (parser.getType() != Command.FUNC) {
-                throw new IllegalArgumentException("Line " + parser.getLineIndex() + 
-                    ": function expected");
-            }
+                if (parser.getType() != Command.FUNC) {
+                    throw new IllegalArgumentException("Line " + parser.getLineIndex() + 
+                        ": function expected");
+                }
 
-        } catch (IOException e) {
-            ioException = new IOException("Failed to read file: " + inputFile, e);
-            throw ioException;
-        } catch (IllegalArgumentException e) {
-            argException = e;
-            throw argException;
+                source = parser.readFunctions();
+
+                if (jackLines && parser.getJackFile() != null) {
+                    jackLineMaps.put(getClassName(inputFile), parser.getJackLines());
+                    jackFiles.put(getClassName(inputFile), parser.getJackFile());
+                }
+
+            } catch (IOException e) {
+                ioException = new IOException("Failed to read file: " + inputFile, e);
+                throw ioException;
+            } catch (IllegalArgumentException e) {
+                argException = merged ? new IllegalArgumentException(inputFile.getFileName() + ": " 
+                    + e.getMessage(), e) : e;
+                throw argException;
+            }
+            sources.put(getClassName(inputFile), source);
+            for (VMFunction function : source) {
+                functions.put(function.getName(), function);
+            }
         }
 
         try {
@@ -103,6 +221,10 @@ public class ClassWriter implements Consumer<ClassBuilder> {
             throw ioException;
         }
 
+        if (ioException == null && argException == null && merged) {
+            writeEntryPoints();
+        }
+
         if (ioException != null) {
             throw ioException;
         }
@@ -118,41 +240,73 @@ public class ClassWriter implements Consumer<ClassBuilder> {
     public void accept(ClassBuilder clss) {
         clss.withVersion(45, 3);
         clss.withSuperclass(ConstantDescs.CD_Object);
-        clss.with(SourceFileAttribute.of(inputFile.getFileName().toString()));
+        // A merged class has no single source file; the method names identify the source files
+        if (!merged) {
+            clss.with(SourceFileAttribute.of(jackFiles.getOrDefault(className,
+                inputFiles.get(0).getFileName().toString())));
+        }
 
-        while (parser.moreLines()) {
-            
-            String methodName = parser.getArg1();
-            int numArgs = parser.getFuncArgs(methodName);
-            int numLocals = parser.getArg2();
-            
-            methodName = methodName.split("\\.")[1];
+        for (Path file : inputFiles) {
+
+            inputFile = file;
+
+            for (VMFunction function : sources.get(getClassName(file))) {
+
+                // The loops are found before the commands are optimized or reordered
+                idleLoops.put(function.getName(), findIdleLoops(function.getBody()));
+
+                if (escapeAnalysis) {
+                    new EscapeAnalyzer(functions).optimize(function);
+                }
+
+                if (profile != null) {
+                    layoutBlocks(function);
+                }
+
+                clss.withMethodBody(getMethodName(function.getName()), MethodTypeDesc.of(ConstantDescs.CD_short,
+                    Collections.nCopies(function.getArgCount(), ConstantDescs.CD_short)),
+                    ClassFile.ACC_STATIC | ClassFile.ACC_PUBLIC, new MethodBodyWriter(function));
+
+                if (ioException != null || argException != null) {
+                    if (merged && argException != null) {
+                        argException = new IllegalArgumentException(inputFile.getFileName() + ": " 
+                            + argException.getMessage(), argException);
+                    }
+                    return;
+                }
 
-            if (methodName.equals("new")) {
-                methodName = "NEW";
             }
 
-            clss.withMethodBody(methodName, MethodTypeDesc.of(ConstantDescs.CD_short,
-                Collections.nCopies(numArgs, ConstantDescs.CD_short)),
-                ClassFile.ACC_STATIC | ClassFile.ACC_PUBLIC, new MethodBodyWriter(numArgs, numLocals));
+        }
 
-            if (ioException != null || argException != null) {
-                return;
+        for (Map.Entry<String, Integer> statics : staticCounts.entrySet()) {
+            for (int i = 0; i < statics.getValue(); i++) {
+                clss.withField(getStaticName(statics.getKey(), i), ConstantDescs.CD_short,
+                    ClassFile.ACC_STATIC | ClassFile.ACC_PRIVATE);
             }
+        }
 
+        for (int i = 0; i < strings.size(); i++) {
+            clss.withField("$string" + i, ConstantDescs.CD_short, ClassFile.ACC_STATIC | ClassFile.ACC_PRIVATE);
         }
 
-        for (int i = 0; i < staticCount; i++) {
-            clss.withField("static" + i, ConstantDescs.CD_short, ClassFile.ACC_STATIC | ClassFile.ACC_PRIVATE);
+        if (!counters.isEmpty()) {
+            clss.withField("$counters", CD_COUNTERS, ClassFile.ACC_STATIC | ClassFile.ACC_PRIVATE);
         }
 
         // Zero-initialize static variables
-        if (staticCount > 0) {
+        if (!staticCounts.isEmpty() || !counters.isEmpty()) {
             clss.withMethodBody("<clinit>", MethodTypeDesc.of(ConstantDescs.CD_void),
                 ClassFile.ACC_STATIC, cob -> {
-                    for (int i = 0; i < staticCount; i++) {
-                        cob.iconst_0();
-                        cob.putstatic(ClassDesc.of(className), "static" + i, ConstantDescs.CD_short);
+                    for (Map.Entry<String, Integer> statics : staticCounts.entrySet()) {
+                        for (int i = 0; i < statics.getValue(); i++) {
+                            cob.iconst_0();
+                            cob.putstatic(ClassDesc.of(className), getStaticName(statics.getKey(), i),
+                                ConstantDescs.CD_short);
+                        }
+                    }
+                    if (!counters.isEmpty()) {
+                        writeCounterRegistration(cob);
                     }
                     cob.return_();
                 });
@@ -161,18 +315,606 @@ public class ClassWriter implements Consumer<ClassBuilder> {
     }
 
 
+    /**
+     * Returns the full path of the class file written by this ClassWriter
+     */
+    public Path getOutputFile() {
+        return outputFile;
+    }
+
+
+    /**
+     * Sets whether to insert execution counters into the compiled code. The counters are
+     * registered with HackProfile, which writes them to a profile file when JHack exits.
+     */
+    public void setInstrumented(boolean instrumented) {
+        this.instrumented = instrumented;
+    }
+
+
+    /**
+     * Sets the execution profile used to optimize the compiled code: the most frequently called
+     * functions are compiled without a yield check at entry (unless steps are counted, see
+     * setCountSteps()), the most frequent calls to small
+     * functions are inlined, and rarely executed blocks are moved to the end of their function
+     */
+    public void setProfile(Profile profile) {
+        this.profile = profile;
+    }
+
+
+    /**
+     * Sets whether string literals are constructed once and shared by every use, or
+     * constructed again each time they are used (the default), as the VM code specifies.
+     * Programs that modify or dispose of string literals need the latter. Literals are never
+     * shared in a merged class that includes the String class, since HackStrings constructs
+     * them with the String class of the JackOS, whose objects may be laid out differently.
+     */
+    public void setInternStrings(boolean internStrings) {
+        this.internStrings = internStrings;
+    }
+
+
+    /**
+     * Sets whether objects that never leave the function that creates them are replaced with
+     * local variables, removing their allocation. Only the constructors and methods of classes
+     * compiled by this ClassWriter are considered, so this works best on a merged program.
+     */
+    public void setEscapeAnalysis(boolean escapeAnalysis) {
+        this.escapeAnalysis = escapeAnalysis;
+    }
+
+
+    /**
+     * Sets whether each yield point, at the entry of a function and at each label, counts a
+     * step against the step limit of the program, so that a program stuck in a loop can be
+     * stopped after a given number of steps
+     */
+    public void setCountSteps(boolean countSteps) {
+        this.countSteps = countSteps;
+    }
+
+
+    /**
+     * Sets whether the line numbers in the class file refer to Jack source lines named in
+     * comments of the VM files, in the format [file].jack:[line], instead of the lines of the
+     * VM files. VM files without such comments keep their own line numbers.
+     */
+    public void setJackLines(boolean jackLines) {
+        this.jackLines = jackLines;
+    }
+
+
+    /**
+     * Writes the code that registers the names of the execution counters of the class with
+     * HackProfile, and stores the array of counters that it returns in the $counters field
+     */
+    private void writeCounterRegistration(CodeBuilder code) {
+
+        // The names are joined by line breaks and split into chunks small enough to fit in
+        // the constant pool
+        ArrayList<String> chunks = new ArrayList<>();
+        StringBuilder chunk = new StringBuilder();
+        for (String name : counters) {
+            if (chunk.length() + name.length() >= 60000) {
+                chunks.add(chunk.toString());
+                chunk.setLength(0);
+            }
+            chunk.append(name).append('\n');
+        }
+        chunks.add(chunk.toString());
+
+        code.loadConstant(chunks.size());
+        code.anewarray(ConstantDescs.CD_String);
+        for (int i = 0; i < chunks.size(); i++) {
+            code.dup();
+            code.loadConstant(i);
+            code.loadConstant(chunks.get(i));
+            code.aastore();
+        }
+        code.invokestatic(ClassDesc.of("HackProfile"), "register", MethodTypeDesc.of(CD_COUNTERS,
+            ConstantDescs.CD_String.arrayType()));
+        code.putstatic(ClassDesc.of(className), "$counters", CD_COUNTERS);
+    }
+
+
+    /**
+     * Moves the blocks of code that the profile shows are rarely executed to the end of the
+     * function, so that the frequently executed code is laid out without jumps around them.
+     * A block is only moved if it can be neither entered nor left by falling through, and
+     * only if the function ends in a goto or return: otherwise, the end of the function falls
+     * through to the implicit return that the moved blocks would be placed before.
+     */
+    private void layoutBlocks(VMFunction function) {
+
+        List<Instruction> body = function.getBody();
+        int coldCount = 0;
+
+        if (body.isEmpty() || !isUnconditional(body.get(body.size() - 1))) {
+            return;
+        }
+
+        for (Instruction branch : body.stream().filter(c -> c.getType() == Command.IF).toList()) {
+
+            double taken = profile.getTakenRatio(function.getName(), branch.getLineIndex());
+            int index = body.indexOf(branch);
+
+            if (taken <= COLD_RATIO) {
+                // The jump is rarely taken, so move the block it jumps to
+                int start = findLabel(body, branch.getArg1());
+                if (start <= index || !isUnconditional(body.get(start - 1))) {
+                    continue;
+                }
+                int end = findBlockEnd(body, start);
+                if (end < 0 || end == body.size() - 1) {
+                    continue;
+                }
+                List<Instruction> block = new ArrayList<>(body.subList(start, end + 1));
+                body.subList(start, end + 1).clear();
+                body.addAll(block);
+            }
+            else if (taken >= 1 - COLD_RATIO) {
+                // The jump is nearly always taken, so move the block that follows it, and
+                // jump to that block when the condition is false instead
+                int end = findBlockEnd(body, index);
+                if (end <= index + 1 || end == body.size() - 1) {
+                    continue;
+                }
+                List<Instruction> block = new ArrayList<>(body.subList(index + 1, end + 1));
+                body.subList(index + 1, end + 1).clear();
+
+                // Labels that begin with $ cannot occur in VM files
+                String cold = "$cold" + coldCount++;
+                int line = branch.getLineIndex();
+                body.set(index, new Instruction(Command.PUSH, "constant", 0, line));
+                body.add(index + 1, new Instruction(Command.MATH, "eq", 0, line));
+                body.add(index + 2, new Instruction(Command.IF, cold, 0, line));
+                if (findLabel(body, branch.getArg1()) != index + 3) {
+                    body.add(index + 3, new Instruction(Command.GOTO, branch.getArg1(), 0, line));
+                }
+                body.add(new Instruction(Command.LABEL, cold, 0, line));
+                body.addAll(block);
+            }
+
+        }
+
+    }
+
+
+    /**
+     * Returns the index of the given label in the function body, or -1 if it is not found
+     */
+    private static int findLabel(List<Instruction> body, String label) {
+        for (int i = 0; i < body.size(); i++) {
+            if (body.get(i).getType() == Command.LABEL && body.get(i).getArg1().equals(label)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Returns the index of the first goto or return after the given index, or -1 if a label
+     * comes first (or there is none)
+     */
+    private static int findBlockEnd(List<Instruction> body, int index) {
+        for (int i = index + 1; i < body.size(); i++) {
+            if (body.get(i).getType() == Command.LABEL) {
+                return -1;
+            }
+            if (isUnconditional(body.get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Returns the labels of the loops in the given function body that only wait for input. A
+     * loop runs from a label to the last jump back to it, and only waits if it calls nothing
+     * but Keyboard.keyPressed, Keyboard.nextEvent, Keyboard.pendingEvents and Memory.peek,
+     * writes nothing to the RAM or static variables, and only stores loop-invariant values in
+     * its variables (see hasInvariantStores()); each pass of such a loop then reads the same
+     * addresses and does the same until the keyboard or the RAM is changed from outside. The
+     * loop must not jump to a label before it, and no command after it may jump into it,
+     * except to its first label.
+     */
+    private static Set<String> findIdleLoops(List<Instruction> body) {
+
+        HashSet<String> idle = new HashSet<>();
+        for (int start = 0; start < body.size(); start++) {
+            if (body.get(start).getType() != Command.LABEL) {
+                continue;
+            }
+            String label = body.get(start).getArg1();
+            int end = -1;
+            for (int i = start + 1; i < body.size(); i++) {
+                if (isJump(body.get(i)) && body.get(i).getArg1().equals(label)) {
+                    end = i;
+                }
+            }
+            if (end >= 0 && isIdleLoop(body, start, end)) {
+                idle.add(label);
+            }
+        }
+        return idle;
+    }
+
+
+    /**
+     * Returns whether the loop between the given indexes only waits for input; see
+     * findIdleLoops()
+     */
+    private static boolean isIdleLoop(List<Instruction> body, int start, int end) {
+
+        HashSet<String> inside = new HashSet<>();
+        for (int i = start + 1; i <= end; i++) {
+            if (body.get(i).getType() == Command.LABEL) {
+                inside.add(body.get(i).getArg1());
+            }
+        }
+        HashSet<String> before = new HashSet<>();
+        for (int i = 0; i < start; i++) {
+            if (body.get(i).getType() == Command.LABEL) {
+                before.add(body.get(i).getArg1());
+            }
+        }
+
+        for (int i = start + 1; i < end; i++) {
+            Instruction command = body.get(i);
+            switch (command.getType()) {
+                case CALL:
+                    if (!isCall(command, "Keyboard.keyPressed", 0)
+                            && !isCall(command, "Keyboard.nextEvent", 0)
+                            && !isCall(command, "Keyboard.pendingEvents", 0)
+                            && !isCall(command, "Memory.peek", 1)) {
+                        return false;
+                    }
+                    break;
+                case GOTO:
+                case IF:
+                    if (before.contains(command.getArg1())) {
+                        return false;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        for (int i = 0; i < body.size(); i++) {
+            if ((i < start || i > end) && isJump(body.get(i)) && inside.contains(body.get(i).getArg1())) {
+                return false;
+            }
+        }
+        return hasInvariantStores(body, start, end);
+    }
+
+
+    /**
+     * Returns whether the loop between the given indexes only stores to its local, argument,
+     * temp and pointer variables, and only stores loop-invariant values: values computed from
+     * constants, input, and the RAM read through pointers, where every variable involved,
+     * pointers included, is itself loop-invariant. A variable is loop-invariant if the loop
+     * does not store to it, or only stores loop-invariant values to it. So storing the key
+     * just read from Keyboard.keyPressed is invariant, but counting (i = i + 1) or following a
+     * chain of pointers (p = p[1]) is not, since each pass reads or stores something new.
+     */
+    private static boolean hasInvariantStores(List<Instruction> body, int start, int end) {
+
+        // The variable stored by each pop in the loop, and the variables its value depends on
+        ArrayList<String> targets = new ArrayList<>();
+        ArrayList<Set<String>> sources = new ArrayList<>();
+
+        // The variables that each value on the stack depends on
+        ArrayDeque<Set<String>> stack = new ArrayDeque<>();
+
+        for (int i = start + 1; i < end; i++) {
+            Instruction command = body.get(i);
+            int pops;
+            switch (command.getType()) {
+                case PUSH:
+                    stack.push(getReadVariables(command));
+                    continue;
+                case POP:
+                    String segment = command.getArg1();
+                    if (!segment.equals("local") && !segment.equals("argument")
+                            && !segment.equals("temp") && !segment.equals("pointer")) {
+                        return false;
+                    }
+                    if (stack.isEmpty()) {
+                        return false;
+                    }
+                    targets.add(segment + " " + command.getArg2());
+                    sources.add(stack.pop());
+                    continue;
+                case MATH:
+                    pops = command.getArg1().equals("neg") || command.getArg1().equals("not") ? 1 : 2;
+                    break;
+                case CALL:
+                    pops = command.getArg2();
+                    break;
+                case IF:
+                case RETURN:
+                    if (stack.isEmpty()) {
+                        return false;
+                    }
+                    stack.pop();
+                    continue;
+                default:
+                    continue;
+            }
+            // The result of an operation or call depends on everything its operands depend on
+            HashSet<String> result = new HashSet<>();
+            for (int n = 0; n < pops; n++) {
+                if (stack.isEmpty()) {
+                    return false;
+                }
+                result.addAll(stack.pop());
+            }
+            stack.push(result);
+        }
+
+        // Start with every stored variable variant, and mark the ones whose stores only
+        // depend on invariant variables as invariant until nothing changes; variables that
+        // depend on each other in a cycle stay variant
+        HashSet<String> variant = new HashSet<>(targets);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (String variable : new ArrayList<>(variant)) {
+                boolean invariant = true;
+                for (int k = 0; k < targets.size(); k++) {
+                    if (targets.get(k).equals(variable) && !Collections.disjoint(sources.get(k), variant)) {
+                        invariant = false;
+                    }
+                }
+                if (invariant) {
+                    variant.remove(variable);
+                    changed = true;
+                }
+            }
+        }
+        return variant.isEmpty();
+    }
+
+
+    /**
+     * Returns the variables that the value of the given push depends on. A push from the this
+     * or that segment reads the RAM through pointer 0 or pointer 1; constants and static
+     * variables, which an idle loop never stores to, depend on nothing.
+     */
+    private static Set<String> getReadVariables(Instruction push) {
+        switch (push.getArg1()) {
+            case "local":
+            case "argument":
+            case "temp":
+            case "pointer":
+                return Set.of(push.getArg1() + " " + push.getArg2());
+            case "this":
+                return Set.of("pointer 0");
+            case "that":
+                return Set.of("pointer 1");
+            default:
+                return Set.of();
+        }
+    }
+
+
+    /**
+     * Returns whether the given command is a goto or an if-goto
+     */
+    private static boolean isJump(Instruction command) {
+        return command.getType() == Command.GOTO || command.getType() == Command.IF;
+    }
+
+
+    /**
+     * Finds the sequence of commands the Jack compiler generates for a string literal starting
+     * at the given index: push constant n, call String.new 1, and then n pairs of push constant c,
+     * call String.appendChar 2, with n at least 1; a bare String.new(0) is an explicit empty
+     * String rather than a literal. Returns the index after the sequence, or -1 if there is
+     * none.
+     */
+    private static int findStringLiteral(List<Instruction> commands, int index) {
+
+        if (index + 1 >= commands.size() || !isPushConstant(commands.get(index))
+                || !isCall(commands.get(index + 1), "String.new", 1)) {
+            return -1;
+        }
+
+        int length = commands.get(index).getArg2();
+        if (length < 1) {
+            return -1;
+        }
+        int end = index + 2;
+        for (int i = 0; i < length; i++, end += 2) {
+            if (end + 1 >= commands.size() || !isPushConstant(commands.get(end))
+                    || !isCall(commands.get(end + 1), "String.appendChar", 2)) {
+                return -1;
+            }
+        }
+
+        return end;
+    }
+
+
+    /**
+     * Returns whether the given command is a push constant
+     */
+    private static boolean isPushConstant(Instruction command) {
+        return command.getType() == Command.PUSH && command.getArg1().equals("constant");
+    }
+
+
+    /**
+     * Returns whether the given command is a call to the given function
+     */
+    private static boolean isCall(Instruction command, String function, int nArgs) {
+        return command.getType() == Command.CALL && command.getArg1().equals(function)
+            && command.getArg2() == nArgs;
+    }
+
+
+    /**
+     * Returns whether the given command always transfers control elsewhere
+     */
+    private static boolean isUnconditional(Instruction command) {
+        return command.getType() == Command.GOTO || command.getType() == Command.RETURN;
+    }
+
+
+    /**
+     * Returns the given function if it is small and simple enough to be inlined at the call
+     * site: it must be compiled into this class and consist of a straight line of commands that
+     * ends in its only return, with exactly one value left on the stack
+     */
+    private VMFunction getInlinable(String name, int nArgs) {
+
+        VMFunction function = functions.get(name);
+        if (function == null || function.getArgCount() != nArgs) {
+            return null;
+        }
+
+        List<Instruction> body = function.getBody();
+        if (body.isEmpty() || body.size() > MAX_INLINE_SIZE
+                || body.get(body.size() - 1).getType() != Command.RETURN) {
+            return null;
+        }
+
+        int depth = 0;
+        for (Instruction command : body.subList(0, body.size() - 1)) {
+            switch (command.getType()) {
+                case PUSH:
+                depth++;
+                break;
+
+                case POP:
+                depth--;
+                break;
+
+                case MATH:
+                if (!command.getArg1().equals("neg") && !command.getArg1().equals("not")) {
+                    depth--;
+                }
+                break;
+
+                case CALL:
+                depth += 1 - command.getArg2();
+                break;
+
+                default:
+                return null;
+            }
+            if (depth < 0) {
+                return null;
+            }
+        }
+
+        return depth == 1 ? function : null;
+    }
+
+
+    /**
+     * Returns the name of the Java method that implements the given VM function
+     */
+    private String getMethodName(String function) {
+        String names[] = function.split("\\.");
+        if (merged) {
+            return names[0] + "$" + names[1];
+        }
+        if (names[1].equals("new")) {
+            return "NEW";
+        }
+        return names[1];
+    }
+
+
+    /**
+     * Returns the name of the Java field that implements the given static variable of a VM class
+     */
+    private String getStaticName(String vmClass, int index) {
+        if (merged) {
+            return vmClass + "$static" + index;
+        }
+        return "static" + index;
+    }
+
+
+    /**
+     * Writes a stub class for each VM class of the merged program, with a method for each of its
+     * functions that forwards the call to the merged class. The stubs have the names a separate
+     * compile would give them, so that JHack, the Java OS classes, and tools that find functions
+     * by name, such as HackSnapshot, can still call the program.
+     */
+    private void writeEntryPoints() throws IOException {
+
+        for (Map.Entry<String, List<VMFunction>> source : sources.entrySet()) {
+
+            String vmClass = source.getKey();
+            Path stubFile = outputFile.resolveSibling(vmClass + ".class");
+
+            try {
+                ClassFile.of().buildTo(stubFile, ClassDesc.of(vmClass), clss -> {
+                    clss.withVersion(45, 3);
+                    clss.withSuperclass(ConstantDescs.CD_Object);
+                    for (VMFunction function : source.getValue()) {
+                        String name = function.getName().split("\\.")[1];
+                        int numArgs = function.getArgCount();
+                        MethodTypeDesc type = MethodTypeDesc.of(ConstantDescs.CD_short,
+                            Collections.nCopies(numArgs, ConstantDescs.CD_short));
+                        clss.withMethodBody(name.equals("new") ? "NEW" : name, type,
+                                ClassFile.ACC_STATIC | ClassFile.ACC_PUBLIC, code -> {
+                            for (int i = 0; i < numArgs; i++) {
+                                code.iload(i);
+                            }
+                            code.invokestatic(ClassDesc.of(className), getMethodName(function.getName()), type);
+                            code.ireturn();
+                        });
+                    }
+                });
+            } catch (IOException e) {
+                ioException = new IOException("Failed to write file: " + stubFile, e);
+                throw ioException;
+            }
+
+        }
+
+    }
+
+
     /**
      * Provides a handler to supply the code of a method body
      */
     private class MethodBodyWriter implements Consumer<CodeBuilder> {
 
+        // The function being compiled
+        private VMFunction vmFunction;
         
 	    // The number of arguments and local variables of the current method
         private int argCount, localCount;
 
+        // The Java local variable slots of argument 0, pointer 0 and local 0; these change while
+        // the body of an inlined function is written
+        private int argSlot, pointerSlot, localSlot;
+
+        // The VM class whose static variables are used by the commands being written
+        private String vmClass;
+
+        // Whether the body of an inlined function is being written
+        private boolean inlining;
+
         // The CodeBuilder for the current method
         private CodeBuilder code;
 
+        // The command being written
+        private Instruction command;
+
+        // The source line number most recently written to the line number table
+        private int lastLine = -1;
+
         // A table of labels found in the current function, and the corresponding destination that they
         // point to in the Java bytecode
         private HashMap<String, Label> labels = new HashMap<>();
@@ -180,12 +922,16 @@ public class ClassWriter implements Consumer<ClassBuilder> {
 
         /**
          * Constructs a new MethodBodyWriter
-         * @param nArgs the number of arguments of the method
-         * @param nLocals the number of local variables in the method
+         * @param function the function to write
          */
-        public MethodBodyWriter(int nArgs, int nLocals) {
-            argCount = nArgs;
-            localCount = nLocals + 2; // Reserve space for pointer 0 and pointer 1
+        public MethodBodyWriter(VMFunction function) {
+            vmFunction = function;
+            argCount = function.getArgCount();
+            localCount = function.getLocalCount() + 2; // Reserve space for pointer 0 and pointer 1
+            argSlot = 0;
+            pointerSlot = argCount;
+            localSlot = argCount + 2;
+            vmClass = function.getClassName();
         }
 
 
@@ -193,11 +939,20 @@ public class ClassWriter implements Consumer<ClassBuilder> {
         public void accept(CodeBuilder code) {
             this.code = code;
 
+            writeLineNumber(vmFunction.getLineIndex());
+
             // Insert a call to Thread.sleep() at the beginning of each function; this allows keyboard
-            // input to get through despite any recursion
-            code.lconst_0();
-            code.invokestatic(ClassDesc.of("java.lang.Thread"), "sleep", 
-                MethodTypeDesc.of(ConstantDescs.CD_void, ConstantDescs.CD_long));
+            // input to get through despite any recursion. The most frequently called functions
+            // rely on the checks in their callers' loops instead, unless steps are counted: the
+            // step limit and the HackMachine watchdog rely on the entry check to stop deep
+            // recursion.
+            if (profile == null || countSteps || !profile.isHotFunction(vmFunction.getName())) {
+                writeYield();
+            }
+
+            if (instrumented) {
+                writeCounter(Profile.functionCounter(vmFunction.getName()));
+            }
 
             // Zero-initialize local variables
             for (int i = 0; i < localCount; i++) {
@@ -206,61 +961,238 @@ public class ClassWriter implements Consumer<ClassBuilder> {
             }
 
             try {
-                Command prevCommand = null;
+                List<Instruction> body = vmFunction.getBody();
 
-                while (parser.moreLines()) {
-                    parser.advance();
+                writeCommands(body);
 
-                    switch (parser.getType()) {
-                        case MATH:
-                        writeArithmetic();
-                        break;
-
-                        case PUSH:
-                        writePush();
-                        break;
+                // In the Hack VM language, all functions return a value
+                if (body.isEmpty() || !isUnconditional(body.get(body.size() - 1))) {
+                    code.ireturn();
+                }
 
-                        case POP:
-                        writePop();
-                        break;
+            } catch (IllegalArgumentException e) {
+                argException = e;
+                return;
+            }
 
-                        case LABEL:
-                        writeLabel();
-                        break;
+        }
 
-                        case GOTO:
-                        writeGoto();
-                        break;
 
-                        case IF:
-                        writeIf();
-                        break;
+        /**
+         * Writes the given commands
+         */
+        private void writeCommands(List<Instruction> commands) {
 
-                        case FUNC:
-                        if (prevCommand != Command.RETURN) {
-                            code.ireturn();
-                        }
-                        return;
+            for (int i = 0; i < commands.size(); i++) {
+                command = commands.get(i);
 
-                        case RETURN:
-		                // In the Hack VM language, all functions return a value
-                        code.ireturn();
-                        break;
+                // The body of an inlined function is attributed to the line of the call
+                if (!inlining) {
+                    writeLineNumber(command.getLineIndex());
+                }
 
-                        case CALL:
-                        writeCall();
-                        break;
+                if (internStrings && !(merged && sources.containsKey("String"))) {
+                    int end = findStringLiteral(commands, i);
+                    if (end > i) {
+                        writeStringLiteral(commands.subList(i, end));
+                        i = end - 1;
+                        continue;
                     }
                 }
 
-            } catch (IOException e) {
-                ioException = new IOException("Failed to read file: " + inputFile, e);
-                return;
-            } catch (IllegalArgumentException e) {
-                argException = e;
+                writeCommand();
+            }
+
+        }
+
+
+        /**
+         * Maps the following bytecode to the given line of the VM file, or to the Jack source
+         * line named in the comments before it
+         */
+        private void writeLineNumber(int lineIndex) {
+            Map<Integer, Integer> jackLineMap = jackLineMaps.get(vmFunction.getClassName());
+            if (jackLineMap != null) {
+                if (!jackLineMap.containsKey(lineIndex)) {
+                    return;
+                }
+                lineIndex = jackLineMap.get(lineIndex);
+            }
+            if (lineIndex != lastLine) {
+                code.lineNumber(lineIndex);
+                lastLine = lineIndex;
+            }
+        }
+
+
+        /**
+         * Writes the current command
+         */
+        private void writeCommand() {
+
+            switch (command.getType()) {
+                case MATH:
+                writeArithmetic();
+                break;
+
+                case PUSH:
+                writePush();
+                break;
+
+                case POP:
+                writePop();
+                break;
+
+                case LABEL:
+                writeLabel();
+                break;
+
+                case GOTO:
+                writeGoto();
+                break;
+
+                case IF:
+                writeIf();
+                break;
+
+                case RETURN:
+                // In the Hack VM language, all functions return a value
+                code.ireturn();
+                break;
+
+                case CALL:
+                writeCall();
+                break;
+
+                default:
+                break;
+            }
+
+        }
+
+
+        /**
+         * Writes a call to Thread.sleep(0), which allows keyboard input to get through
+         */
+        private void writeYield() {
+            if (countSteps) {
+                code.invokestatic(ClassDesc.of("HackComputer"), "step",
+                    MethodTypeDesc.of(ConstantDescs.CD_void));
                 return;
             }
+            code.lconst_0();
+            code.invokestatic(ClassDesc.of("java.lang.Thread"), "sleep", 
+                MethodTypeDesc.of(ConstantDescs.CD_void, ConstantDescs.CD_long));
+        }
+
+
+        /**
+         * Writes a call to HackComputer.idle(), which yields like Thread.sleep(0) but parks the
+         * thread when a loop that only waits for input keeps spinning
+         */
+        private void writeIdle() {
+            if (countSteps) {
+                code.invokestatic(ClassDesc.of("HackComputer"), "step",
+                    MethodTypeDesc.of(ConstantDescs.CD_void));
+            }
+            code.invokestatic(ClassDesc.of("HackComputer"), "idle",
+                MethodTypeDesc.of(ConstantDescs.CD_void));
+        }
+
+
+        /**
+         * Writes a string literal. The Jack compiler builds each string literal with a call to
+         * String.new followed by a call to String.appendChar for each character; this is replaced
+         * with a lookup of the literal in HackStrings, which constructs each distinct literal only
+         * once. The pointer it returns is cached in a static field for each literal.
+         * @param commands the commands that construct the literal
+         */
+        private void writeStringLiteral(List<Instruction> commands) {
+
+            StringBuilder text = new StringBuilder();
+            for (int i = 3; i < commands.size(); i += 2) {
+                text.append((char) commands.get(i - 1).getArg2());
+            }
+
+            int index = strings.indexOf(text.toString());
+            if (index < 0) {
+                index = strings.size();
+                strings.add(text.toString());
+            }
+
+            Label cached = code.newLabel();
+            code.getstatic(ClassDesc.of(className), "$string" + index, ConstantDescs.CD_short);
+            code.dup();
+            code.ifne(cached);
+            code.pop();
+            code.loadConstant(text.toString());
+            code.invokestatic(ClassDesc.of("HackStrings"), "literal", MethodTypeDesc.of(
+                ConstantDescs.CD_short, ConstantDescs.CD_String));
+            code.dup();
+            code.putstatic(ClassDesc.of(className), "$string" + index, ConstantDescs.CD_short);
+            code.labelBinding(cached);
+        }
+
+
+        /**
+         * Writes the code to increment the given execution counter
+         */
+        private void writeCounter(String name) {
+            int index = counters.indexOf(name);
+            if (index < 0) {
+                index = counters.size();
+                counters.add(name);
+            }
+            code.getstatic(ClassDesc.of(className), "$counters", CD_COUNTERS);
+            code.loadConstant(index);
+            code.dup2();
+            code.laload();
+            code.lconst_1();
+            code.ladd();
+            code.lastore();
+        }
+
+
+        /**
+         * Writes the body of the given function in place of a call to it. The arguments on the
+         * stack are stored in new local variables, and the return value is left on the stack.
+         */
+        private void writeInline(VMFunction callee) {
+
+            int savedArgSlot = argSlot, savedPointerSlot = pointerSlot, savedLocalSlot = localSlot;
+            String savedClass = vmClass;
+            Instruction savedCommand = command;
+
+            int nArgs = callee.getArgCount();
+            int slots = nArgs + callee.getLocalCount() + 2;
+            argSlot = code.allocateLocal(TypeKind.SHORT);
+            for (int i = 1; i < slots; i++) {
+                code.allocateLocal(TypeKind.SHORT);
+            }
+            pointerSlot = argSlot + nArgs;
+            localSlot = pointerSlot + 2;
+            vmClass = callee.getClassName();
+            inlining = true;
+
+            // The last argument is on the top of the stack
+            for (int i = nArgs - 1; i >= 0; i--) {
+                code.istore(argSlot + i);
+            }
+            for (int i = pointerSlot; i < argSlot + slots; i++) {
+                code.iconst_0();
+                code.istore(i);
+            }
+
+            // The final return leaves the return value on the stack
+            List<Instruction> body = callee.getBody();
+            writeCommands(body.subList(0, body.size() - 1));
 
+            argSlot = savedArgSlot;
+            pointerSlot = savedPointerSlot;
+            localSlot = savedLocalSlot;
+            vmClass = savedClass;
+            command = savedCommand;
+            inlining = false;
         }
 
 
@@ -270,7 +1202,7 @@ public class ClassWriter implements Consumer<ClassBuilder> {
         private void writeArithmetic() {
 
             Label label1, label2;
-            switch (parser.getArg1()) {
+            switch (command.getArg1()) {
             case "add":
                 code.iadd();
                 // The result must be truncated to a short value to match Hack computer specs
@@ -344,7 +1276,7 @@ public class ClassWriter implements Consumer<ClassBuilder> {
          * Writes a label
          */
         private void writeLabel() {
-            String label = parser.getArg1();
+            String label = command.getArg1();
             if (!labels.containsKey(label)) {
                 labels.put(label, code.newBoundLabel());
             }
@@ -352,10 +1284,17 @@ public class ClassWriter implements Consumer<ClassBuilder> {
                 code.labelBinding(labels.get(label));
             }
             // Insert a call to Thread.sleep() after each label; this allows keyboard input
-            // to get through during input loops
-            code.lconst_0();
-            code.invokestatic(ClassDesc.of("java.lang.Thread"), "sleep", 
-                MethodTypeDesc.of(ConstantDescs.CD_void, ConstantDescs.CD_long));
+            // to get through during input loops. Loops that only wait for input let
+            // HackComputer.idle() back off instead, once they have spun for a while.
+            if (!inlining && idleLoops.get(vmFunction.getName()).contains(label)) {
+                writeIdle();
+            }
+            else {
+                writeYield();
+            }
+            if (instrumented && !inlining) {
+                writeCounter(Profile.labelCounter(vmFunction.getName(), label));
+            }
         }
         
 
@@ -363,7 +1302,7 @@ public class ClassWriter implements Consumer<ClassBuilder> {
          * Writes a goto instruction
          */
         private void writeGoto() {
-            String label = parser.getArg1();
+            String label = command.getArg1();
             if (!labels.containsKey(label)) {
                 // Until we find the label, link to an instruction stored in the labels table
                 labels.put(label, code.newLabel());
@@ -376,11 +1315,20 @@ public class ClassWriter implements Consumer<ClassBuilder> {
          * Writes an if-goto instruction
          */
         private void writeIf() {
-            String label = parser.getArg1();
+            String label = command.getArg1();
             if (!labels.containsKey(label)) {
                 // Until we find the label, link to an instruction stored in the labels table
                 labels.put(label, code.newLabel());
             }
+            if (instrumented && !inlining) {
+                // Count the executions of the if-goto, and the executions in which it jumps
+                Label notTaken = code.newLabel();
+                writeCounter(Profile.branchCounter(vmFunction.getName(), command.getLineIndex()));
+                code.dup();
+                code.ifeq(notTaken);
+                writeCounter(Profile.takenCounter(vmFunction.getName(), command.getLineIndex()));
+                code.labelBinding(notTaken);
+            }
             code.ifne(labels.get(label));
         }
 
@@ -390,8 +1338,8 @@ public class ClassWriter implements Consumer<ClassBuilder> {
          */
         private void writePush() {
 
-            String segment = parser.getArg1();
-            int index = parser.getArg2();
+            String segment = command.getArg1();
+            int index = command.getArg2();
 
             switch (segment) {
             
@@ -402,16 +1350,16 @@ public class ClassWriter implements Consumer<ClassBuilder> {
             case "local":
                 // In Java bytecode, arguments and local variables are accessed with the same instruction
                 // The first two local variables of the method are reserved for pointer 0 and pointer 1
-                code.iload(index + argCount + 2);
+                code.iload(index + localSlot);
                 break;
                 
             case "argument":
-                code.iload(index);
+                code.iload(argSlot + index);
                 break;
                 
             case "this":
                 // load pointer 0
-                code.iload(argCount);
+                code.iload(pointerSlot);
                 code.loadConstant(index);
                 code.iadd();
                 code.invokestatic(ClassDesc.of("HackComputer"), "peek", MethodTypeDesc.of(
@@ -420,7 +1368,7 @@ public class ClassWriter implements Consumer<ClassBuilder> {
                 
             case "that":
                 // load pointer 1
-                code.iload(argCount + 1);
+                code.iload(pointerSlot + 1);
                 code.loadConstant(index);
                 code.iadd();
                 code.invokestatic(ClassDesc.of("HackComputer"), "peek", MethodTypeDesc.of(
@@ -428,18 +1376,18 @@ public class ClassWriter implements Consumer<ClassBuilder> {
                 break;
                 
             case "static":
-                code.getstatic(ClassDesc.of(className), "static" + index, ConstantDescs.CD_short);
-                staticCount = Math.max(staticCount, index + 1);
+                code.getstatic(ClassDesc.of(className), getStaticName(vmClass, index), ConstantDescs.CD_short);
+                staticCounts.merge(vmClass, index + 1, Math::max);
                 break;
                 
             case "pointer":
                 if (index == 0) {
                     // pointer 0
-                    code.iload(argCount);
+                    code.iload(pointerSlot);
                 }
                 else {
                     // pointer 1
-                    code.iload(argCount + 1);
+                    code.iload(pointerSlot + 1);
                 }
                 break;
                 
@@ -458,24 +1406,24 @@ public class ClassWriter implements Consumer<ClassBuilder> {
          */
         private void writePop() {
 
-            String segment = parser.getArg1();
-            int index = parser.getArg2();
+            String segment = command.getArg1();
+            int index = command.getArg2();
 
 			switch (segment) {
 			
 			case "local":
 				// In Java bytecode, arguments and local variables are accessed with the same instruction
 				// The first two local variables of the method are reserved for pointer 0 and pointer 1
-				code.istore(index + argCount + 2);
+				code.istore(index + localSlot);
 				break;
 				
 			case "argument":
-				code.istore(index);
+				code.istore(argSlot + index);
 				break;
 				
 			case "this":
 				// pointer 0
-				code.iload(argCount);
+				code.iload(pointerSlot);
 				code.loadConstant(index);
 				code.iadd();
                 code.invokestatic(ClassDesc.of("HackComputer"), "poke", MethodTypeDesc.of(
@@ -484,7 +1432,7 @@ public class ClassWriter implements Consumer<ClassBuilder> {
 				
 			case "that":
 				// pointer 1
-				code.iload(argCount + 1);
+				code.iload(pointerSlot + 1);
 				code.loadConstant(index);
 				code.iadd();
                 code.invokestatic(ClassDesc.of("HackComputer"), "poke", MethodTypeDesc.of(
@@ -492,18 +1440,18 @@ public class ClassWriter implements Consumer<ClassBuilder> {
 				break;
 				
 			case "static":
-                code.putstatic(ClassDesc.of(className), "static" + index, ConstantDescs.CD_short);
-				staticCount = Math.max(staticCount, index + 1);
+                code.putstatic(ClassDesc.of(className), getStaticName(vmClass, index), ConstantDescs.CD_short);
+				staticCounts.merge(vmClass, index + 1, Math::max);
 				break;
 				
 			case "pointer":
 				if (index == 0) {
 					// pointer 0
-					code.istore(argCount);
+					code.istore(pointerSlot);
 				}
 				else {
 					// pointer 1
-					code.istore(argCount + 1);
+					code.istore(pointerSlot + 1);
 				}
 				break;
 				
@@ -523,8 +1471,8 @@ public class ClassWriter implements Consumer<ClassBuilder> {
          */
         private void writeCall() {
 
-            String function = parser.getArg1();
-            int nArgs = parser.getArg2();
+            String function = command.getArg1();
+            int nArgs = command.getArg2();
             
             // Replace these specific OS functions with JVM stack operations which are much faster
             if (function.equals("Math.multiply")) {
@@ -538,8 +1486,29 @@ public class ClassWriter implements Consumer<ClassBuilder> {
                 return;
             }
 
+            if (instrumented && !inlining) {
+                writeCounter(Profile.callCounter(vmFunction.getName(), command.getLineIndex()));
+            }
+
+            // Replace the most frequent calls to small functions with the body of the function
+            if (profile != null && !inlining && profile.isHotCall(vmFunction.getName(), command.getLineIndex())) {
+                VMFunction callee = getInlinable(function, nArgs);
+                if (callee != null) {
+                    writeInline(callee);
+                    return;
+                }
+            }
+
             String names[] = function.split("\\.");
             
+            // Functions of the merged program are called within this class; any other
+            // function (such as an OS function) is still called in its own class
+            if (merged && sources.containsKey(names[0])) {
+                code.invokestatic(ClassDesc.of(className), getMethodName(function), MethodTypeDesc.of(
+                    ConstantDescs.CD_short, Collections.nCopies(nArgs, ConstantDescs.CD_short)));
+                return;
+            }
+
             if (names[1].equals("new")) {
                 names[1] = "NEW";
             }
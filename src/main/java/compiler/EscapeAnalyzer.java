@@ -0,0 +1,416 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This class removes the allocation of Jack objects that never leave the function that creates them
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+package compiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import compiler.Parser.Command;
+
+/**
+ * Replaces objects that do not escape the function that creates them with local variables.
+ * 
+ * An object qualifies if it is created by a simple constructor, stored in a local variable that
+ * is assigned only once, and that variable is only ever used as the object of calls to simple
+ * methods of its class, or to Memory.deAlloc. A simple constructor allocates a constant number
+ * of words with Memory.alloc and then runs a straight line of code; a simple method is a
+ * straight line of code that only uses its object to read and write the object's fields, or to
+ * pass it to Memory.deAlloc.
+ * 
+ * The calls to the constructor and the methods are replaced with their bodies, in which each field
+ * of the object is a new local variable of the function, and Memory.alloc and Memory.deAlloc are
+ * no longer called.
+ */
+public class EscapeAnalyzer {
+
+	// The functions whose bodies are available, by their full names
+	private Map<String, VMFunction> functions;
+
+	// The function being optimized
+	private VMFunction function;
+
+	// The body of the function being optimized
+	private List<Instruction> body;
+
+
+	/**
+	 * Constructs a new EscapeAnalyzer
+	 * @param functions the functions whose bodies are available, by their full names
+	 */
+	public EscapeAnalyzer(Map<String, VMFunction> functions) {
+		this.functions = functions;
+	}
+
+
+	/**
+	 * Replaces the objects that do not escape the given function with local variables
+	 */
+	public void optimize(VMFunction function) {
+		this.function = function;
+		body = function.getBody();
+		int localCount = function.getLocalCount();
+		for (int local = 0; local < localCount; local++) {
+			replace(local);
+		}
+	}
+
+
+	/**
+	 * Replaces the object stored in the given local variable with local variables, if it does
+	 * not escape the function
+	 */
+	private void replace(int local) {
+
+		// The variable must be assigned exactly once, with the result of a simple constructor
+		int def = -1;
+		ArrayList<Integer> uses = new ArrayList<>();
+		for (int i = 0; i < body.size(); i++) {
+			Instruction command = body.get(i);
+			if (isLocal(command, Command.POP, local)) {
+				if (def >= 0) {
+					return;
+				}
+				def = i;
+			}
+			else if (isLocal(command, Command.PUSH, local)) {
+				uses.add(i);
+			}
+		}
+
+		if (def < 1 || body.get(def - 1).getType() != Command.CALL) {
+			return;
+		}
+		VMFunction constructor = functions.get(body.get(def - 1).getArg1());
+		int size = getObjectSize(constructor);
+		if (size < 0) {
+			return;
+		}
+
+		// Every use must pass the object as the first argument of a simple method or Memory.deAlloc
+		ArrayList<Integer> calls = new ArrayList<>();
+		for (int use : uses) {
+			int call = findConsumer(use);
+			if (call < 0) {
+				return;
+			}
+			Instruction command = body.get(call);
+			if (!(command.getArg1().equals("Memory.deAlloc") && command.getArg2() == 1)) {
+				VMFunction method = functions.get(command.getArg1());
+				if (method == null || !method.getClassName().equals(constructor.getClassName())
+						|| method.getArgCount() != command.getArg2() || !isSimpleMethod(method, size)) {
+					return;
+				}
+			}
+			calls.add(call);
+		}
+
+		int fields = function.addLocals(size);
+
+		// Rewrite from the end of the body, so that the indices still to be rewritten stay valid
+		ArrayList<Integer> edits = new ArrayList<>(uses);
+		edits.addAll(calls);
+		edits.add(def);
+		Collections.sort(edits, Collections.reverseOrder());
+
+		for (int index : edits) {
+			Instruction command = body.get(index);
+			if (index == def) {
+				// Replace the call to the constructor and the store of its result
+				List<Instruction> code = inline(constructor, fields, command.getLineIndex());
+				body.subList(def - 1, def + 1).clear();
+				body.addAll(def - 1, code);
+			}
+			else if (command.getType() == Command.PUSH) {
+				// The object itself is no longer pushed
+				body.remove(index);
+			}
+			else if (command.getArg1().equals("Memory.deAlloc")) {
+				body.set(index, new Instruction(Command.PUSH, "constant", 0, command.getLineIndex()));
+			}
+			else {
+				List<Instruction> code = inline(functions.get(command.getArg1()), fields,
+					command.getLineIndex());
+				body.remove(index);
+				body.addAll(index, code);
+			}
+		}
+
+	}
+
+
+	/**
+	 * Returns the index of the command that consumes the value pushed at the given index, if
+	 * the value is consumed as the first argument of a call in the same straight line of code;
+	 * otherwise returns -1
+	 */
+	private int findConsumer(int push) {
+
+		// The number of values above the pushed value on the stack
+		int above = 0;
+
+		for (int i = push + 1; i < body.size(); i++) {
+			Instruction command = body.get(i);
+			switch (command.getType()) {
+				case PUSH:
+				above++;
+				break;
+
+				case POP:
+				if (above == 0) {
+					return -1;
+				}
+				above--;
+				break;
+
+				case MATH:
+				if (isUnary(command)) {
+					if (above == 0) {
+						return -1;
+					}
+				}
+				else if (above < 2) {
+					return -1;
+				}
+				else {
+					above--;
+				}
+				break;
+
+				case CALL:
+				int nArgs = command.getArg2();
+				if (above == nArgs - 1) {
+					return i;
+				}
+				if (above < nArgs) {
+					return -1;
+				}
+				above += 1 - nArgs;
+				break;
+
+				default:
+				return -1;
+			}
+		}
+
+		return -1;
+	}
+
+
+	/**
+	 * Returns the number of words allocated by the given function if it is a simple constructor,
+	 * or -1 if it is not
+	 */
+	private int getObjectSize(VMFunction constructor) {
+
+		if (constructor == null) {
+			return -1;
+		}
+		List<Instruction> code = constructor.getBody();
+		int last = code.size() - 1;
+		if (last < 4 || !isCommand(code.get(0), Command.PUSH, "constant")
+				|| !isCall(code.get(1), "Memory.alloc", 1) || !isPointer(code.get(2), Command.POP, 0)
+				|| !isPointer(code.get(last - 1), Command.PUSH, 0) || code.get(last).getType() != Command.RETURN) {
+			return -1;
+		}
+
+		int size = code.get(0).getArg2();
+		if (size < 1 || !isSimple(constructor, code.subList(3, last - 1), size, false)) {
+			return -1;
+		}
+		return size;
+	}
+
+
+	/**
+	 * Returns whether the given function is a simple method of an object with the given number
+	 * of fields
+	 */
+	private boolean isSimpleMethod(VMFunction method, int size) {
+		List<Instruction> code = method.getBody();
+		int last = code.size() - 1;
+		return last >= 2 && isCommand(code.get(0), Command.PUSH, "argument") && code.get(0).getArg2() == 0
+			&& isPointer(code.get(1), Command.POP, 0) && code.get(last).getType() == Command.RETURN
+			&& isSimple(method, code.subList(2, last), size, true);
+	}
+
+
+	/**
+	 * Returns whether the given part of the body of a constructor or method is a straight line
+	 * of code that only uses its object to access fields below the given size (and, in a method,
+	 * to pass it to Memory.deAlloc), and leaves the return value of a method on the stack
+	 */
+	private boolean isSimple(VMFunction callee, List<Instruction> code, int size, boolean method) {
+
+		int depth = 0;
+		for (int i = 0; i < code.size(); i++) {
+			Instruction command = code.get(i);
+			switch (command.getType()) {
+				case PUSH:
+				case POP:
+				switch (command.getArg1()) {
+					case "this":
+					if (command.getArg2() >= size) {
+						return false;
+					}
+					break;
+
+					case "argument":
+					// Argument 0 of a method is its object
+					if (method && command.getArg2() == 0) {
+						return false;
+					}
+					break;
+
+					case "static":
+					// The static variables of another class cannot be accessed from this function
+					if (!callee.getClassName().equals(function.getClassName())) {
+						return false;
+					}
+					break;
+
+					case "pointer":
+					if (!(method && isPointer(command, Command.PUSH, 0) && i + 1 < code.size()
+							&& isCall(code.get(i + 1), "Memory.deAlloc", 1))) {
+						return false;
+					}
+					break;
+
+					case "that":
+					return false;
+				}
+				depth += command.getType() == Command.PUSH ? 1 : -1;
+				break;
+
+				case MATH:
+				if (!isUnary(command)) {
+					depth--;
+				}
+				break;
+
+				case CALL:
+				depth += 1 - command.getArg2();
+				break;
+
+				default:
+				return false;
+			}
+			if (depth < 0) {
+				return false;
+			}
+		}
+
+		return depth == (method ? 1 : 0);
+	}
+
+
+	/**
+	 * Returns the body of the given constructor or method, in which the fields of the object
+	 * are the local variables of the function being optimized starting at the given index. The
+	 * arguments of the call (other than the object of a method) are taken from the stack, and
+	 * the return value of a method is left on the stack.
+	 */
+	private List<Instruction> inline(VMFunction callee, int fields, int lineIndex) {
+
+		List<Instruction> code = callee.getBody();
+		boolean constructor = isCall(code.get(1), "Memory.alloc", 1);
+		int first = constructor ? 0 : 1;
+		int nArgs = callee.getArgCount();
+
+		// The arguments and local variables of the callee become new local variables
+		int args = function.addLocals(nArgs);
+		int locals = function.addLocals(callee.getLocalCount());
+
+		ArrayList<Instruction> inlined = new ArrayList<>();
+		for (int i = nArgs - 1; i >= first; i--) {
+			inlined.add(new Instruction(Command.POP, "local", args + i, lineIndex));
+		}
+		for (int i = 0; i < callee.getLocalCount(); i++) {
+			inlined.add(new Instruction(Command.PUSH, "constant", 0, lineIndex));
+			inlined.add(new Instruction(Command.POP, "local", locals + i, lineIndex));
+		}
+		if (constructor) {
+			// Memory.alloc does not clear the memory it allocates, but the fields start at 0
+			for (int i = 0; i < code.get(0).getArg2(); i++) {
+				inlined.add(new Instruction(Command.PUSH, "constant", 0, lineIndex));
+				inlined.add(new Instruction(Command.POP, "local", fields + i, lineIndex));
+			}
+		}
+
+		List<Instruction> statements = constructor ? code.subList(3, code.size() - 2)
+			: code.subList(2, code.size() - 1);
+		for (int i = 0; i < statements.size(); i++) {
+			Instruction command = statements.get(i);
+			if (command.getType() == Command.PUSH || command.getType() == Command.POP) {
+				switch (command.getArg1()) {
+					case "this":
+					command = new Instruction(command.getType(), "local", fields + command.getArg2(), lineIndex);
+					break;
+
+					case "argument":
+					command = new Instruction(command.getType(), "local", args + command.getArg2(), lineIndex);
+					break;
+
+					case "local":
+					command = new Instruction(command.getType(), "local", locals + command.getArg2(), lineIndex);
+					break;
+
+					case "pointer":
+					// The object is passed to Memory.deAlloc, which is no longer needed
+					inlined.add(new Instruction(Command.PUSH, "constant", 0, lineIndex));
+					i++;
+					continue;
+				}
+			}
+			inlined.add(new Instruction(command.getType(), command.getArg1(), command.getArg2(), lineIndex));
+		}
+
+		return inlined;
+	}
+
+
+	/**
+	 * Returns whether the given command is an arithmetic command with one operand
+	 */
+	private static boolean isUnary(Instruction command) {
+		return command.getArg1().equals("neg") || command.getArg1().equals("not");
+	}
+
+
+	/**
+	 * Returns whether the given command is a push or pop of the given local variable
+	 */
+	private static boolean isLocal(Instruction command, Command type, int index) {
+		return isCommand(command, type, "local") && command.getArg2() == index;
+	}
+
+
+	/**
+	 * Returns whether the given command is a push or pop of the given pointer
+	 */
+	private static boolean isPointer(Instruction command, Command type, int index) {
+		return isCommand(command, type, "pointer") && command.getArg2() == index;
+	}
+
+
+	/**
+	 * Returns whether the given command has the given type and segment
+	 */
+	private static boolean isCommand(Instruction command, Command type, String segment) {
+		return command.getType() == type && command.getArg1().equals(segment);
+	}
+
+
+	/**
+	 * Returns whether the given command is a call to the given function
+	 */
+	private static boolean isCall(Instruction command, String name, int nArgs) {
+		return command.getType() == Command.CALL && command.getArg1().equals(name)
+			&& command.getArg2() == nArgs;
+	}
+
+}
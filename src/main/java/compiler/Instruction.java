@@ -0,0 +1,76 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This class holds a single command of a Nand2Tetris Hack VM file
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+package compiler;
+
+import compiler.Parser.Command;
+
+/**
+ * A single command of a Hack VM file, as read by the Parser
+ */
+public class Instruction {
+
+	// The command type
+	private Command type;
+
+	// The second word of the command
+	private String arg1;
+
+	// The third word of the command
+	private int arg2;
+
+	// The index of the line the command was read from
+	private int lineIndex;
+
+
+	/**
+	 * Constructs a new Instruction
+	 * @param type the command type
+	 * @param arg1 the second word of the command
+	 * @param arg2 the third word of the command
+	 * @param lineIndex the index of the line the command was read from
+	 */
+	public Instruction(Command type, String arg1, int arg2, int lineIndex) {
+		this.type = type;
+		this.arg1 = arg1;
+		this.arg2 = arg2;
+		this.lineIndex = lineIndex;
+	}
+
+
+	/**
+	 * Returns the command type
+	 */
+	public Command getType() {
+		return type;
+	}
+
+
+	/**
+	 * Returns the second word of the command
+	 */
+	public String getArg1() {
+		return arg1;
+	}
+
+
+	/**
+	 * Returns the third word of the command
+	 */
+	public int getArg2() {
+		return arg2;
+	}
+
+
+	/**
+	 * Returns the index of the line the command was read from
+	 */
+	public int getLineIndex() {
+		return lineIndex;
+	}
+
+
+}
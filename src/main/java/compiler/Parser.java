@@ -10,7 +10,11 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Parses a Nand2Tetris Hack VM file line by line
@@ -24,6 +28,9 @@ public class Parser {
 	
 	// The index of the current line
 	private int lineIndex = 0;
+
+	// The index of the line of the current command
+	private int commandIndex = 0;
 	
 	// The command type of the current line
 	private Command type;
@@ -42,6 +49,17 @@ public class Parser {
 	
 	// The name of the file being parsed
 	private String fileName;
+
+	// Matches a reference to a line of Jack source code in a comment, such as Main.jack:12
+	private static final Pattern JACK_LINE = Pattern.compile("([A-Za-z_][\\w$]*\\.jack):(\\d+)");
+
+	// The Jack source file and line most recently referenced in a comment
+	private String jackFile;
+	private int jackLine = 0;
+
+	// The Jack source lines referenced by comments, by the index of the line of each command
+	// that follows them
+	private HashMap<Integer, Integer> jackLines = new HashMap<>();
 	
 	
 	/**
@@ -82,6 +100,10 @@ public class Parser {
 	public void advance() throws IOException {
 
 		if (next != null) {
+			commandIndex = lineIndex;
+			if (jackLine > 0) {
+				jackLines.put(commandIndex, jackLine);
+			}
 			parse();
 		}
 
@@ -100,6 +122,7 @@ public class Parser {
 			else {
 				next = next.trim();
 				if (next.contains("//")) {
+					findJackLine(next.substring(next.indexOf("//")));
 					next = next.substring(0, next.indexOf("//")).trim();
 				}
 			}
@@ -107,6 +130,40 @@ public class Parser {
 	}
 	
 	
+	/**
+	 * Records the Jack source file and line referenced by the given comment, if any
+	 */
+	private void findJackLine(String comment) {
+		Matcher matcher = JACK_LINE.matcher(comment);
+		if (matcher.find()) {
+			try {
+				jackLine = Integer.parseInt(matcher.group(2));
+				jackFile = matcher.group(1);
+			} catch (NumberFormatException e) {
+				// Not a line number after all
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the Jack source file most recently referenced by a comment in the form
+	 * [file].jack:[line], or null if there was none
+	 */
+	public String getJackFile() {
+		return jackFile;
+	}
+
+
+	/**
+	 * Returns the Jack source lines referenced by comments in the form [file].jack:[line], by the
+	 * index of the line of each command that follows them
+	 */
+	public HashMap<Integer, Integer> getJackLines() {
+		return jackLines;
+	}
+
+
 	/**
 	 * Returns the command type of the current line
 	 */
@@ -131,6 +188,37 @@ public class Parser {
 	}
 
 
+	/**
+	 * Reads the rest of the file, starting with the current command, which must be a function
+	 * declaration. Returns the functions that were read, in the order they were declared.
+	 */
+	public List<VMFunction> readFunctions() throws IOException {
+
+		ArrayList<VMFunction> functions = new ArrayList<>();
+		VMFunction function = null;
+
+		do {
+			if (type == Command.FUNC) {
+				function = new VMFunction(arg1, getFuncArgs(arg1), arg2, commandIndex);
+				functions.add(function);
+			}
+			else if (function == null) {
+				throw new IllegalArgumentException("Line " + commandIndex + ": function expected");
+			}
+			else {
+				function.getBody().add(new Instruction(type, arg1, arg2, commandIndex));
+			}
+
+			if (!moreLines()) {
+				break;
+			}
+			advance();
+		} while (true);
+
+		return functions;
+	}
+
+
 	/**
 	 * Returns the number of local arguments in the given function
 	 */
@@ -444,5 +532,13 @@ public class Parser {
 	public int getLineIndex() {
 		return lineIndex;
 	}
+
+
+	/**
+	 * Returns the index of the line of the current command
+	 */
+	public int getCommandIndex() {
+		return commandIndex;
+	}
 	
 }
\ No newline at end of file
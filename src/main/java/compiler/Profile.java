@@ -0,0 +1,148 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This class reads the execution profile recorded by a JHack run of an instrumented program
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+package compiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * Holds the execution counters recorded by a program compiled with the --instrument option.
+ * Each line of a profile file holds the name of a counter followed by its value.
+ */
+public class Profile {
+
+	// A function or call site is hot if it was executed at least this fraction as often as
+	// the most frequently executed one
+	private static final double HOT_FRACTION = 0.01;
+
+	// Counters below this value are too small to base any decision on
+	private static final long MIN_COUNT = 100;
+
+	// The counters read from the file, by name
+	private HashMap<String, Long> counters = new HashMap<>();
+
+	// The greatest function and call site counters in the profile
+	private long maxFunction, maxCall;
+
+
+	/**
+	 * Reads a profile file
+	 * @param file the full path of the profile file
+	 */
+	public Profile(Path file) throws IOException {
+		int lineIndex = 0;
+		for (String line : Files.readAllLines(file)) {
+			lineIndex++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			int space = line.lastIndexOf(' ');
+			try {
+				counters.put(line.substring(0, space), Long.parseLong(line.substring(space + 1)));
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException(file.getFileName() + ": Line " + lineIndex
+					+ ": invalid counter");
+			}
+		}
+
+		for (String name : counters.keySet()) {
+			if (name.startsWith("function ")) {
+				maxFunction = Math.max(maxFunction, counters.get(name));
+			}
+			else if (name.startsWith("call ")) {
+				maxCall = Math.max(maxCall, counters.get(name));
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the name of the counter of calls to the given function
+	 */
+	public static String functionCounter(String function) {
+		return "function " + function;
+	}
+
+
+	/**
+	 * Returns the name of the counter of the call on the given line of the given function
+	 */
+	public static String callCounter(String function, int lineIndex) {
+		return "call " + function + " " + lineIndex;
+	}
+
+
+	/**
+	 * Returns the name of the counter of the times execution reached the given label of the
+	 * given function
+	 */
+	public static String labelCounter(String function, String label) {
+		return "label " + function + " " + label;
+	}
+
+
+	/**
+	 * Returns the name of the counter of executions of the if-goto on the given line of the
+	 * given function
+	 */
+	public static String branchCounter(String function, int lineIndex) {
+		return "branch " + function + " " + lineIndex;
+	}
+
+
+	/**
+	 * Returns the name of the counter of jumps taken by the if-goto on the given line of the
+	 * given function
+	 */
+	public static String takenCounter(String function, int lineIndex) {
+		return "taken " + function + " " + lineIndex;
+	}
+
+
+	/**
+	 * Returns the value of the given counter, or 0 if the profile does not contain it
+	 */
+	public long getCount(String counter) {
+		return counters.getOrDefault(counter, 0L);
+	}
+
+
+	/**
+	 * Returns whether the given function is one of the most frequently called functions
+	 */
+	public boolean isHotFunction(String function) {
+		long count = getCount(functionCounter(function));
+		return count >= MIN_COUNT && count >= maxFunction * HOT_FRACTION;
+	}
+
+
+	/**
+	 * Returns whether the call on the given line of the given function is one of the most
+	 * frequently executed call sites
+	 */
+	public boolean isHotCall(String function, int lineIndex) {
+		long count = getCount(callCounter(function, lineIndex));
+		return count >= MIN_COUNT && count >= maxCall * HOT_FRACTION;
+	}
+
+
+	/**
+	 * Returns the fraction of executions in which the if-goto on the given line of the given
+	 * function jumped, or NaN if it was not executed often enough to tell
+	 */
+	public double getTakenRatio(String function, int lineIndex) {
+		long count = getCount(branchCounter(function, lineIndex));
+		if (count < MIN_COUNT) {
+			return Double.NaN;
+		}
+		return (double) getCount(takenCounter(function, lineIndex)) / count;
+	}
+
+}
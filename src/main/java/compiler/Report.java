@@ -0,0 +1,199 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This class reports on the Java bytecode written by the JHack compiler
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+package compiler;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassModel;
+import java.lang.classfile.CodeElement;
+import java.lang.classfile.CodeModel;
+import java.lang.classfile.MethodModel;
+import java.lang.classfile.attribute.CodeAttribute;
+import java.lang.classfile.instruction.InvokeInstruction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * Collects metrics on each method of the class files written by VMtoClass, and writes them to a
+ * CSV or JSON report, together with warnings for methods that the HotSpot JIT compiler will not
+ * compile or inline with its default settings.
+ */
+public class Report {
+
+	// Methods with more bytecode than this are only inlined where they are frequently called
+	// (HotSpot's MaxInlineSize)
+	private static final int MAX_INLINE_SIZE = 35;
+
+	// Methods with more bytecode than this are never inlined (HotSpot's FreqInlineSize)
+	private static final int FREQ_INLINE_SIZE = 325;
+
+	// Methods with more bytecode than this are never JIT-compiled (HotSpot's HugeMethodLimit)
+	private static final int HUGE_METHOD_LIMIT = 8000;
+
+	// The methods reported so far
+	private ArrayList<Method> methods = new ArrayList<>();
+
+
+	/**
+	 * Adds the methods of the given class file to the report, and prints a warning for each
+	 * method that will not be JIT-compiled or inlined
+	 * @param classFile the full path of the class file
+	 */
+	public void add(Path classFile) throws IOException {
+
+		ClassModel model = ClassFile.of().parse(classFile);
+		String className = model.thisClass().asInternalName();
+
+		for (MethodModel methodModel : model.methods()) {
+			if (methodModel.code().isEmpty() || methodModel.methodName().equalsString("<clinit>")) {
+				continue;
+			}
+			Method method = new Method(className, methodModel.methodName().stringValue(),
+				methodModel.code().get());
+			methods.add(method);
+
+			if (method.size > HUGE_METHOD_LIMIT) {
+				System.out.println("Warning: " + method.function + " is " + method.size
+					+ " bytes and will never be JIT-compiled (HugeMethodLimit is " + HUGE_METHOD_LIMIT + ")");
+			}
+			else if (method.size > FREQ_INLINE_SIZE) {
+				System.out.println("Warning: " + method.function + " is " + method.size
+					+ " bytes and will never be inlined (FreqInlineSize is " + FREQ_INLINE_SIZE + ")");
+			}
+		}
+	}
+
+
+	/**
+	 * Writes the report to the given file; the report is written as JSON if the file name ends
+	 * in .json, or as CSV otherwise
+	 */
+	public void write(Path file) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+			if (file.getFileName().toString().toLowerCase().endsWith(".json")) {
+				writeJson(out);
+			}
+			else {
+				writeCsv(out);
+			}
+		}
+	}
+
+
+	/**
+	 * Writes the report as CSV, with one line for each method
+	 */
+	private void writeCsv(PrintWriter out) {
+		out.println("function,class,method,bytecodeSize,maxStack,maxLocals,ramCalls,tempCalls,"
+			+ "yieldPoints,calls,inlining,jitCompiled");
+		for (Method method : methods) {
+			out.println(method.function + "," + method.className + "," + method.name + "," + method.size
+				+ "," + method.maxStack + "," + method.maxLocals + "," + method.ramCalls + ","
+				+ method.tempCalls + "," + method.yieldPoints + "," + method.calls + ","
+				+ method.getInlining() + "," + (method.size <= HUGE_METHOD_LIMIT));
+		}
+	}
+
+
+	/**
+	 * Writes the report as a JSON array, with one object for each method
+	 */
+	private void writeJson(PrintWriter out) {
+		out.println("[");
+		for (int i = 0; i < methods.size(); i++) {
+			Method method = methods.get(i);
+			out.print("  {\"function\": \"" + method.function + "\", \"class\": \"" + method.className
+				+ "\", \"method\": \"" + method.name + "\", \"bytecodeSize\": " + method.size
+				+ ", \"maxStack\": " + method.maxStack + ", \"maxLocals\": " + method.maxLocals
+				+ ", \"ramCalls\": " + method.ramCalls + ", \"tempCalls\": " + method.tempCalls
+				+ ", \"yieldPoints\": " + method.yieldPoints + ", \"calls\": " + method.calls
+				+ ", \"inlining\": \"" + method.getInlining() + "\", \"jitCompiled\": "
+				+ (method.size <= HUGE_METHOD_LIMIT) + "}");
+			out.println(i < methods.size() - 1 ? "," : "");
+		}
+		out.println("]");
+	}
+
+
+	/**
+	 * The metrics of a single method
+	 */
+	private static class Method {
+
+		// The names of the class and the method, and of the VM function it implements
+		private String className, name, function;
+
+		// The size of the bytecode, and the maximum stack depth and local variables
+		private int size, maxStack, maxLocals;
+
+		// The number of calls to HackComputer.peek and poke, to pushTemp and popTemp,
+		// to Thread.sleep, HackComputer.step or HackComputer.idle, and to all other methods
+		private int ramCalls, tempCalls, yieldPoints, calls;
+
+
+		/**
+		 * Collects the metrics of the given method
+		 */
+		private Method(String className, String name, CodeModel code) {
+			this.className = className;
+			this.name = name;
+
+			// Methods of merged classes are named [file]$[function]
+			if (name.contains("$")) {
+				function = name.replaceFirst("\\$", ".");
+			}
+			else {
+				function = className + "." + (name.equals("NEW") ? "new" : name);
+			}
+
+			if (code instanceof CodeAttribute attribute) {
+				size = attribute.codeLength();
+				maxStack = attribute.maxStack();
+				maxLocals = attribute.maxLocals();
+			}
+
+			for (CodeElement element : code) {
+				if (element instanceof InvokeInstruction invoke) {
+					String owner = invoke.owner().asInternalName();
+					String method = invoke.name().stringValue();
+					if (owner.equals("HackComputer") && (method.equals("peek") || method.equals("poke"))) {
+						ramCalls++;
+					}
+					else if (owner.equals("HackComputer") && method.endsWith("Temp")) {
+						tempCalls++;
+					}
+					else if (owner.equals("java/lang/Thread") && method.equals("sleep")
+							|| owner.equals("HackComputer") && (method.equals("step") || method.equals("idle"))) {
+						yieldPoints++;
+					}
+					else {
+						calls++;
+					}
+				}
+			}
+		}
+
+
+		/**
+		 * Returns whether HotSpot will inline the method: "always" if it is small enough to be
+		 * inlined anywhere, "hot" if only where it is frequently called, or "never"
+		 */
+		private String getInlining() {
+			if (size <= MAX_INLINE_SIZE) {
+				return "always";
+			}
+			if (size <= FREQ_INLINE_SIZE) {
+				return "hot";
+			}
+			return "never";
+		}
+
+	}
+
+}
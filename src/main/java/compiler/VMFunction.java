@@ -0,0 +1,102 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This class holds a function of a Nand2Tetris Hack VM file
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+package compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A function of a Hack VM file and the commands in its body, as read by the Parser
+ */
+public class VMFunction {
+
+	// The full name of the function, in the format [file].[function]
+	private String name;
+
+	// The number of arguments and local variables of the function
+	private int argCount, localCount;
+
+	// The index of the line the function was declared on
+	private int lineIndex;
+
+	// The commands in the function body
+	private ArrayList<Instruction> body = new ArrayList<>();
+
+
+	/**
+	 * Constructs a new VMFunction with an empty body
+	 * @param name the full name of the function
+	 * @param nArgs the number of arguments of the function
+	 * @param nLocals the number of local variables of the function
+	 * @param lineIndex the index of the line the function was declared on
+	 */
+	public VMFunction(String name, int nArgs, int nLocals, int lineIndex) {
+		this.name = name;
+		argCount = nArgs;
+		localCount = nLocals;
+		this.lineIndex = lineIndex;
+	}
+
+
+	/**
+	 * Returns the full name of the function, in the format [file].[function]
+	 */
+	public String getName() {
+		return name;
+	}
+
+
+	/**
+	 * Returns the name of the VM class (file) that defines the function
+	 */
+	public String getClassName() {
+		return name.substring(0, name.indexOf('.'));
+	}
+
+
+	/**
+	 * Returns the number of arguments of the function
+	 */
+	public int getArgCount() {
+		return argCount;
+	}
+
+
+	/**
+	 * Returns the number of local variables of the function
+	 */
+	public int getLocalCount() {
+		return localCount;
+	}
+
+
+	/**
+	 * Adds the given number of local variables to the function
+	 * @return the index of the first new local variable
+	 */
+	public int addLocals(int count) {
+		localCount += count;
+		return localCount - count;
+	}
+
+
+	/**
+	 * Returns the index of the line the function was declared on
+	 */
+	public int getLineIndex() {
+		return lineIndex;
+	}
+
+
+	/**
+	 * Returns the commands in the function body; the list may be modified
+	 */
+	public List<Instruction> getBody() {
+		return body;
+	}
+
+}
@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
 
 /**
@@ -24,6 +25,35 @@ public class VMtoClass {
 	// An array of the files in the input directory
 	static String sourceFileNames[];
 
+	// If not null, the whole program is compiled into one class with this name
+	static String mergedClassName;
+
+	// Whether to insert execution counters into the compiled code
+	static boolean instrumented;
+
+	// The execution profile used to optimize the compiled code, or null
+	static Profile profile;
+
+	// Whether string literals are constructed once and shared, instead of on every use as the
+	// VM code specifies
+	static boolean internStrings;
+
+	// Whether objects that do not escape the function that creates them are replaced with
+	// local variables
+	static boolean escapeAnalysis;
+
+	// Whether line numbers refer to Jack source lines named in comments of the VM files
+	static boolean jackLines;
+
+	// Whether yield points count steps against the step limit of the program
+	static boolean countSteps;
+
+	// The file to write a report on the compiled methods to, or null
+	static Path reportFile;
+
+	// The report on the compiled methods
+	static Report report = new Report();
+
 
 	/**
 	 * The entry point of the JHack compiler program
@@ -42,18 +72,52 @@ public class VMtoClass {
 			return;
 		}
 
-		for (String fileName : sourceFileNames) {
-			System.out.println(fileName);
-			ClassWriter writer = new ClassWriter(sourceDir.resolve(fileName));
+		if (mergedClassName != null) {
+			System.out.println(mergedClassName);
+			compile(new ClassWriter(Arrays.stream(sourceFileNames).map(sourceDir::resolve).toList(),
+				mergedClassName), mergedClassName);
+		}
+		else {
+			for (String fileName : sourceFileNames) {
+				System.out.println(fileName);
+				compile(new ClassWriter(sourceDir.resolve(fileName)), fileName);
+			}
+		}
+
+		if (reportFile != null) {
 			try {
-				writer.compile();
+				report.write(reportFile);
 			} catch (IOException e) {
-				System.err.println("Error while reading file");
-				System.err.println(fileName);
-			} catch (IllegalArgumentException e) {
-				System.err.println(e.getMessage());
+				System.err.println("Error while writing report");
+				System.err.println(reportFile);
 			}
-		} 
+		}
+	}
+
+
+	/**
+	 * Compiles a class with the given ClassWriter, using the options sent to the program
+	 * @param writer the ClassWriter to compile with
+	 * @param name the name of the file or class being compiled, for error messages
+	 */
+	static void compile(ClassWriter writer, String name) {
+		writer.setInstrumented(instrumented);
+		writer.setProfile(profile);
+		writer.setInternStrings(internStrings);
+		writer.setEscapeAnalysis(escapeAnalysis);
+		writer.setJackLines(jackLines);
+		writer.setCountSteps(countSteps);
+		try {
+			writer.compile();
+			if (reportFile != null) {
+				report.add(writer.getOutputFile());
+			}
+		} catch (IOException e) {
+			System.err.println("Error while reading file");
+			System.err.println(name);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+		}
 	}
 
 	
@@ -70,13 +134,57 @@ public class VMtoClass {
 			}
 		}
 		
-		// Currently, one argument is expected: the input directory
-		if (args.length != 1) {
+		// One argument is expected: the input directory; it may be accompanied by options
+		String input = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--merge") && i + 1 < args.length) {
+				mergedClassName = args[++i];
+			}
+			else if (args[i].equals("--report") && i + 1 < args.length) {
+				reportFile = Paths.get(args[++i]).toAbsolutePath();
+			}
+			else if (args[i].equals("--count-steps")) {
+				countSteps = true;
+			}
+			else if (args[i].equals("--jack-lines")) {
+				jackLines = true;
+			}
+			else if (args[i].equals("--escape-analysis")) {
+				escapeAnalysis = true;
+			}
+			else if (args[i].equals("--intern-strings")) {
+				internStrings = true;
+			}
+			else if (args[i].equals("--instrument")) {
+				instrumented = true;
+			}
+			else if (args[i].equals("--profile") && i + 1 < args.length) {
+				Path file = Paths.get(args[++i]);
+				try {
+					profile = new Profile(file);
+				} catch (IOException e) {
+					System.out.println("Failed to read profile: " + file);
+					return false;
+				} catch (IllegalArgumentException e) {
+					System.out.println(e.getMessage());
+					return false;
+				}
+			}
+			else if (input == null && !args[i].startsWith("--")) {
+				input = args[i];
+			}
+			else {
+				printHelp();
+				return false;
+			}
+		}
+
+		if (input == null) {
 			printHelp();
 			return false;
 		}
 		
-		sourceDir = Paths.get(args[0]).toAbsolutePath();
+		sourceDir = Paths.get(input).toAbsolutePath();
 		
 		if (!Files.isDirectory(sourceDir)) {
 			sourceDir = sourceDir.getParent();
@@ -84,6 +192,11 @@ public class VMtoClass {
 		
 		sourceFileNames = sourceDir.toFile().list((dir, name) -> name.toLowerCase().endsWith(".vm"));
 		
+		if (mergedClassName != null && sourceFileNames.length == 0) {
+			System.out.println("No .vm files found in " + sourceDir);
+			return false;
+		}
+
 		return true;
 	}
 	
@@ -93,8 +206,43 @@ public class VMtoClass {
 	 */
 	static void printHelp() {
 		System.out.println("SYNTAX");
-		System.out.println("VMtoClass <inDir>");
+		System.out.println("VMtoClass <inDir> [options]");
 		System.out.println("\tTranslates all .vm files in inDir from Hack VM language to Java class files.");
+		System.out.println();
+		System.out.println("OPTIONS");
+		System.out.println("--merge <className>");
+		System.out.println("\tCompiles the whole program into a single class, className.class. A stub class");
+		System.out.println("\tis also written for each VM class, such as Main, whose functions forward to the");
+		System.out.println("\tmerged class, so that the program can still be started and its functions found.");
+		System.out.println("--instrument");
+		System.out.println("\tCounts the calls to each function, the executions of each call and label, and");
+		System.out.println("\tthe jumps taken by each if-goto. JHack writes the counts to the file jhack.profile");
+		System.out.println("\ton exit, and prints the hottest functions and loops on halt or on CTRL+F12.");
+		System.out.println("--profile <file>");
+		System.out.println("\tOptimizes the program using the counts in a profile written by an instrumented");
+		System.out.println("\tbuild: hot calls to small functions are inlined, rarely executed blocks are");
+		System.out.println("\tmoved out of the way, and hot functions skip the yield check at entry.");
+		System.out.println("--escape-analysis");
+		System.out.println("\tReplaces objects that are created and only used within one function, by calls");
+		System.out.println("\tto simple methods, with local variables, so they are never allocated. Works best");
+		System.out.println("\twith --merge, since only constructors and methods in the same class are used.");
+		System.out.println("--report <file>");
+		System.out.println("\tWrites the bytecode size, maximum stack and locals, and number of RAM accesses,");
+		System.out.println("\tyield checks and calls of each compiled method to a CSV file, or a JSON file if");
+		System.out.println("\tthe name ends in .json. Methods too large for the JVM to inline or compile");
+		System.out.println("\tare also reported as warnings.");
+		System.out.println("--jack-lines");
+		System.out.println("\tUses the Jack source lines named in comments of the VM files, in the format");
+		System.out.println("\t// Main.jack:12, as the line numbers of the compiled code, so that stack traces");
+		System.out.println("\tand profilers refer to the Jack source. By default, VM file lines are used.");
+		System.out.println("--count-steps");
+		System.out.println("\tCounts a step at the entry of each function and at each label, so that");
+		System.out.println("\tHackMachine and HackBatch can stop a program after a given number of steps.");
+		System.out.println("--intern-strings");
+		System.out.println("\tConstructs each distinct string literal once and shares it, instead of");
+		System.out.println("\tconstructing a new String each time a literal is used. This changes the");
+		System.out.println("\tbehavior of programs that modify or dispose of string literals, and is not");
+		System.out.println("\tapplied to a merged program that includes its own String class.");
 	}
 
 }
@@ -0,0 +1,40 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This file tests the keyboard of HackComputer, the Hack computer of the JHack emulator, a
+ * Java-based emulator of the Nand to Tetris Hack computer.
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+/**
+ * Tests how queued keys reach the keyboard memory map. Each test method throws an
+ * AssertionError if it fails; main() runs them all.
+ */
+public class HackComputerTest {
+
+	/**
+	 * Queues a key pressed and released before the program reads the keyboard, and checks
+	 * that two reads see the press and then the release
+	 */
+	public void testPressAndRelease() {
+		HackComputer.pressKey((short) 65);
+		HackComputer.pressKey((short) 0);
+		check(HackComputer.peek(HackComputer.KBD), 65);
+		check(HackComputer.peek(HackComputer.KBD), 0);
+	}
+
+	/**
+	 * Throws an AssertionError if the value is not the one expected
+	 */
+	private static void check(int actual, int expected) {
+		if (actual != expected) {
+			throw new AssertionError("Expected " + expected + ", but was " + actual);
+		}
+	}
+
+	public static void main(java.lang.String[] args) {
+		HackComputerTest test = new HackComputerTest();
+		test.testPressAndRelease();
+		System.out.println("HackComputerTest passed");
+	}
+
+}
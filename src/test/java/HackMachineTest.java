@@ -0,0 +1,120 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This file tests HackMachine, which runs independent Hack computers side by side with the
+ * JHack emulator, a Java-based emulator of the Nand to Tetris Hack computer.
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+import java.net.URL;
+
+/**
+ * Tests that machines running at the same time keep their own RAM. Each test method throws an
+ * AssertionError if it fails; main() runs them all.
+ */
+public class HackMachineTest {
+
+	// The last word of the screen, which the sample Main does not draw on while it waits
+	private static final int ADDRESS = HackComputer.KBD - 1;
+
+	/**
+	 * Runs the sample Main on two machines at once, and stores a different value in the RAM of
+	 * each while both wait for a key
+	 */
+	public void testSeparateRam() throws Exception {
+		URL classPath = HackMachine.class.getProtectionDomain().getCodeSource().getLocation();
+		try (HackMachine first = new HackMachine(classPath);
+				HackMachine second = new HackMachine(classPath)) {
+			Thread firstThread = start(first);
+			Thread secondThread = start(second);
+			try {
+				awaitKey(firstThread);
+				awaitKey(secondThread);
+				first.poke(1, ADDRESS);
+				second.poke(2, ADDRESS);
+				check(firstThread.isAlive() && secondThread.isAlive(), "both machines are running");
+				check(first.peek(ADDRESS) == 1, "the first machine keeps its value");
+				check(second.peek(ADDRESS) == 2, "the second machine keeps its value");
+			} finally {
+				stop(firstThread);
+				stop(secondThread);
+			}
+		}
+	}
+
+	/**
+	 * Checks that a machine refuses to map its RAM to a file, which every machine would share
+	 */
+	public void testFileRamRefused() throws Exception {
+		URL classPath = HackMachine.class.getProtectionDomain().getCodeSource().getLocation();
+		System.setProperty("jhack.ram", "file:ram.bin");
+		try {
+			new HackMachine(classPath).close();
+			throw new AssertionError("Expected the file RAM to be refused");
+		} catch (IllegalStateException e) {
+		} finally {
+			System.clearProperty("jhack.ram");
+		}
+	}
+
+	/**
+	 * Runs the given machine on a new thread, which ends when the thread is interrupted
+	 */
+	private static Thread start(HackMachine machine) {
+		Thread thread = new Thread(() -> {
+			try {
+				machine.run();
+			} catch (RuntimeException e) {
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Waits until the program on the given thread waits for a key in Keyboard.readChar()
+	 */
+	private static void awaitKey(Thread thread) throws InterruptedException {
+		long deadline = System.nanoTime() + 10_000_000_000L;
+		while (!isWaitingForKey(thread)) {
+			check(System.nanoTime() < deadline, "the program to wait for a key");
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * Returns whether the given thread is in HackComputer.awaitKeyboard()
+	 */
+	private static boolean isWaitingForKey(Thread thread) {
+		for (StackTraceElement frame : thread.getStackTrace()) {
+			if (frame.getMethodName().equals("awaitKeyboard")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stops a machine started with start(), and waits for its thread to end
+	 */
+	private static void stop(Thread thread) throws InterruptedException {
+		thread.interrupt();
+		thread.join();
+	}
+
+	/**
+	 * Throws an AssertionError naming the expectation if the condition is false
+	 */
+	private static void check(boolean condition, java.lang.String expectation) {
+		if (!condition) {
+			throw new AssertionError("Expected " + expectation);
+		}
+	}
+
+	public static void main(java.lang.String[] args) throws Exception {
+		HackMachineTest test = new HackMachineTest();
+		test.testSeparateRam();
+		test.testFileRamRefused();
+		System.out.println("HackMachineTest passed");
+	}
+
+}
@@ -0,0 +1,49 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This file tests the key events of the Keyboard class of the JackOS, for the JHack emulator,
+ * a Java-based emulator of the Nand to Tetris Hack computer.
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+/**
+ * Tests the key events that Keyboard reads from keys pressed with HackComputer.pressKey().
+ * Each test method throws an AssertionError if it fails; main() runs them all.
+ */
+public class KeyboardTest {
+
+	/**
+	 * Checks that keys pressed before the program asks for events are not kept, and that keys
+	 * pressed afterwards come back in order as presses and releases
+	 */
+	public void testEvents() {
+		HackComputer.pressKey((short) 66);
+		HackComputer.pressKey((short) 0);
+		check(Keyboard.pendingEvents(), 0);
+
+		HackComputer.pressKey((short) 65);
+		HackComputer.pressKey((short) 67);
+		HackComputer.pressKey((short) 0);
+		check(Keyboard.pendingEvents(), 4);
+		check(Keyboard.nextEvent(), 65);
+		check(Keyboard.nextEvent(), -65);
+		check(Keyboard.nextEvent(), 67);
+		check(Keyboard.waitEvent(), -67);
+		check(Keyboard.nextEvent(), 0);
+	}
+
+	/**
+	 * Throws an AssertionError if the value is not the one expected
+	 */
+	private static void check(int actual, int expected) {
+		if (actual != expected) {
+			throw new AssertionError("Expected " + expected + ", but was " + actual);
+		}
+	}
+
+	public static void main(java.lang.String[] args) {
+		KeyboardTest test = new KeyboardTest();
+		test.testEvents();
+		System.out.println("KeyboardTest passed");
+	}
+
+}
@@ -0,0 +1,162 @@
+/**
+ * JHack - https://github.com/Teledar/JHack
+ * This file tests the optimizations of VMtoClass, the compiler of the JHack emulator, a
+ * Java-based emulator of the Nand to Tetris Hack computer.
+ * Nand to Tetris - https://www.nand2tetris.org/
+ */
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiles each program under tests/optimizations with and without an optimization, runs both
+ * builds with HackHeadless, and checks that they leave the same screen. Every program is merged
+ * into one class, so that calls between its classes can be optimized. The compiler and the
+ * programs run in their own JVMs, since VMtoClass keeps its options in static fields and each
+ * program has its own Main. Each test method throws an AssertionError if it fails; main() runs
+ * them all from the root of the project.
+ */
+public class OptimizationTest {
+
+	// The directory holding a directory of VM files for each program
+	private static final Path PROGRAMS = Paths.get("tests", "optimizations");
+
+	// The name of the class that each program is merged into
+	private static final java.lang.String MERGED_CLASS = "Prog";
+
+	// The programs that create objects which never leave the function creating them
+	private static final List<java.lang.String> LOCAL_OBJECT_PROGRAMS = Arrays.asList(
+		"ConstructorArgs", "DeAlloc", "FieldGetter");
+
+	/**
+	 * Optimizes each program with a profile of its own run, which inlines its hot calls and
+	 * moves the blocks its hot branches skip
+	 */
+	public void testProfile() throws IOException, InterruptedException {
+		for (Path program : getPrograms()) {
+			Path instrumented = compile(program, "--instrument");
+			Path profile = instrumented.resolve("jhack.profile");
+			run(instrumented, "-Djhack.profile=" + profile);
+			checkSameScreen(program, "--profile", profile.toString());
+		}
+	}
+
+	/**
+	 * Optimizes each program that creates objects with escape analysis, which replaces the
+	 * objects, their constructors and methods, and Memory.deAlloc with local variables
+	 */
+	public void testEscapeAnalysis() throws IOException, InterruptedException {
+		for (java.lang.String name : LOCAL_OBJECT_PROGRAMS) {
+			checkSameScreen(PROGRAMS.resolve(name), "--escape-analysis");
+		}
+	}
+
+	/**
+	 * Compiles the program with the given options and without them, and checks that the
+	 * options change the compiled class but not the screen the program leaves
+	 */
+	private static void checkSameScreen(Path program, java.lang.String... options)
+			throws IOException, InterruptedException {
+		Path plain = compile(program);
+		Path optimized = compile(program, options);
+		java.lang.String name = program.getFileName() + " " + java.lang.String.join(" ", options);
+		if (Arrays.equals(readClass(plain), readClass(optimized))) {
+			throw new AssertionError(name + ": the options did not change the compiled class");
+		}
+		if (!Arrays.equals(run(plain), run(optimized))) {
+			throw new AssertionError(name + ": the screen differs from the build without the options");
+		}
+	}
+
+	/**
+	 * Returns the directories of the programs to compile
+	 */
+	private static List<Path> getPrograms() throws IOException {
+		ArrayList<Path> programs = new ArrayList<>();
+		try (DirectoryStream<Path> dirs = Files.newDirectoryStream(PROGRAMS, Files::isDirectory)) {
+			dirs.forEach(programs::add);
+		}
+		if (programs.isEmpty()) {
+			throw new AssertionError("No programs in " + PROGRAMS.toAbsolutePath());
+		}
+		return programs;
+	}
+
+	/**
+	 * Copies the VM files of the program to a new directory, and compiles them there with the
+	 * given options
+	 * @return the directory holding the compiled classes
+	 */
+	private static Path compile(Path program, java.lang.String... options)
+			throws IOException, InterruptedException {
+		Path dir = Files.createTempDirectory(program.getFileName().toString());
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(program, "*.vm")) {
+			for (Path file : files) {
+				Files.copy(file, dir.resolve(file.getFileName()));
+			}
+		}
+		ArrayList<java.lang.String> args = new ArrayList<>(Arrays.asList("compiler.VMtoClass",
+			dir.toString(), "--merge", MERGED_CLASS));
+		args.addAll(Arrays.asList(options));
+		exec(args, "");
+		if (!Files.exists(dir.resolve(MERGED_CLASS + ".class"))) {
+			throw new AssertionError(program.getFileName() + ": VMtoClass wrote no "
+				+ MERGED_CLASS + ".class");
+		}
+		return dir;
+	}
+
+	/**
+	 * Runs the compiled program in the given directory until it halts
+	 * @param properties system properties to run it with, such as -Djhack.profile=file
+	 * @return the screen it leaves, as a PBM file
+	 */
+	private static byte[] run(Path dir, java.lang.String... properties)
+			throws IOException, InterruptedException {
+		Path screen = dir.resolve("screen.pbm");
+		ArrayList<java.lang.String> args = new ArrayList<>(Arrays.asList(properties));
+		args.addAll(Arrays.asList("-Djava.awt.headless=true", "HackHeadless",
+			"--snapshot", screen.toString()));
+		exec(args, dir + java.io.File.pathSeparator);
+		return Files.readAllBytes(screen);
+	}
+
+	/**
+	 * Returns the contents of the merged class in the given directory
+	 */
+	private static byte[] readClass(Path dir) throws IOException {
+		return Files.readAllBytes(dir.resolve(MERGED_CLASS + ".class"));
+	}
+
+	/**
+	 * Runs a new JVM with the given arguments, on the class path of this one with the given
+	 * entries in front, and waits for it to exit with status 0
+	 */
+	private static void exec(List<java.lang.String> args, java.lang.String classPathPrefix)
+			throws IOException, InterruptedException {
+		ArrayList<java.lang.String> command = new ArrayList<>(Arrays.asList(
+			Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+			"-cp", classPathPrefix + System.getProperty("java.class.path")));
+		command.addAll(args);
+		Process process = new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+			.redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		int status = process.waitFor();
+		if (status != 0) {
+			throw new AssertionError(java.lang.String.join(" ", args) + ": exit status " + status);
+		}
+	}
+
+	public static void main(java.lang.String[] args) throws Exception {
+		OptimizationTest test = new OptimizationTest();
+		test.testProfile();
+		test.testEscapeAnalysis();
+		System.out.println("OptimizationTest passed");
+	}
+
+}